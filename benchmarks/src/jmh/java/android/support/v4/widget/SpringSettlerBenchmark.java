@@ -0,0 +1,55 @@
+package android.support.v4.widget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of sampling a {@link SpringSettler} once per frame, for each kind of damping.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpringSettlerBenchmark {
+
+    /**
+     * Frames of a settle sampled, a quarter second at 60 Hz.
+     */
+    private static final int FRAMES = 16;
+
+    private static final long FRAME_INTERVAL = 16; // ms
+
+    @Param({"0.5", "1", "2"})
+    public float dampingRatio;
+
+    private SpringSettler mSettler;
+
+    @Setup
+    public void setUp() {
+        mSettler = new SpringSettler(SpringSettler.STIFFNESS_MEDIUM, dampingRatio);
+    }
+
+    @Benchmark
+    public int computeOffset() {
+        mSettler.start(0, 0, 400, 1200, 500, 3000, 0);
+        int sum = 0;
+        for (int i = 1; i <= FRAMES; i++) {
+            mSettler.computeOffset(i * FRAME_INTERVAL);
+            sum += mSettler.getCurrY();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,72 @@
+package android.support.v4.widget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of feeding a drag to a {@link VelocityEstimator}: one sample per ACTION_MOVE, and the
+ * velocity computed once on release.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VelocityEstimatorBenchmark {
+
+    /**
+     * Samples of one drag, 300 ms at 120 Hz.
+     */
+    private static final int TRACE_SIZE = 38;
+
+    private final long[] mTimes = new long[TRACE_SIZE];
+    private final float[] mX = new float[TRACE_SIZE];
+    private final float[] mY = new float[TRACE_SIZE];
+
+    private ImpulseVelocityEstimator mEstimator;
+    private long mTimeBase;
+
+    @Setup
+    public void setUp() {
+        mEstimator = new ImpulseVelocityEstimator();
+        // A drag accelerating downwards with some horizontal wobble.
+        for (int i = 0; i < TRACE_SIZE; i++) {
+            mTimes[i] = i * 8;
+            mX[i] = 200 + 10 * (float) Math.sin(i / 4.0);
+            mY[i] = 0.02f * i * i * 8;
+        }
+    }
+
+    @Benchmark
+    public float addMovement() {
+        final long base = mTimeBase;
+        mTimeBase += TRACE_SIZE * 8;
+        for (int i = 0; i < TRACE_SIZE; i++) {
+            mEstimator.addMovement(0, base + mTimes[i], mX[i], mY[i]);
+        }
+        return mEstimator.getYVelocity(0);
+    }
+
+    @Benchmark
+    public float addMovementAndRelease() {
+        final long base = mTimeBase;
+        mTimeBase += TRACE_SIZE * 8;
+        mEstimator.clear(0);
+        for (int i = 0; i < TRACE_SIZE; i++) {
+            mEstimator.addMovement(0, base + mTimes[i], mX[i], mY[i]);
+        }
+        mEstimator.computeCurrentVelocity(1000, Float.MAX_VALUE);
+        return mEstimator.getYVelocity(0);
+    }
+}
@@ -0,0 +1,182 @@
+package android.support.v4.widget;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays synthetic touch traces against {@link ImpulseVelocityEstimator}.
+ */
+public class ImpulseVelocityEstimatorTest {
+
+    private static final float DELTA = 0.01f;
+    private static final float NO_LIMIT = Float.MAX_VALUE;
+
+    /**
+     * Time between two samples of a trace, a 120 Hz touch panel.
+     */
+    private static final long SAMPLE_INTERVAL = 8; // ms
+
+    private ImpulseVelocityEstimator mEstimator;
+
+    @Before
+    public void setUp() {
+        mEstimator = new ImpulseVelocityEstimator();
+    }
+
+    /**
+     * Add samples of a pointer moving at a constant velocity.
+     *
+     * @return Time of the last sample
+     */
+    private long addTrace(int pointerId, long startTime, float startX, float startY,
+                          float xVelocity, float yVelocity, int samples) {
+        long time = startTime;
+        for (int i = 0; i < samples; i++) {
+            time = startTime + i * SAMPLE_INTERVAL;
+            final long elapsed = time - startTime;
+            mEstimator.addMovement(pointerId, time,
+                    startX + xVelocity * elapsed, startY + yVelocity * elapsed);
+        }
+        return time;
+    }
+
+    @Test
+    public void noSamplesHaveNoVelocity() {
+        mEstimator.computeCurrentVelocity(1000, NO_LIMIT);
+        assertEquals(0, mEstimator.getXVelocity(0), 0);
+        assertEquals(0, mEstimator.getYVelocity(0), 0);
+    }
+
+    @Test
+    public void singleSampleHasNoVelocity() {
+        mEstimator.addMovement(0, 100, 10, 10);
+        mEstimator.computeCurrentVelocity(1000, NO_LIMIT);
+        assertEquals(0, mEstimator.getXVelocity(0), 0);
+    }
+
+    @Test
+    public void twoSamples() {
+        mEstimator.addMovement(0, 100, 10, 10);
+        mEstimator.addMovement(0, 110, 30, 0);
+        mEstimator.computeCurrentVelocity(1000, NO_LIMIT);
+        assertEquals(2000, mEstimator.getXVelocity(0), DELTA);
+        assertEquals(-1000, mEstimator.getYVelocity(0), DELTA);
+    }
+
+    @Test
+    public void constantVelocity() {
+        addTrace(0, 1000, 0, 500, 1.5f, -0.5f, 12);
+        mEstimator.computeCurrentVelocity(1000, NO_LIMIT);
+        assertEquals(1500, mEstimator.getXVelocity(0), DELTA);
+        assertEquals(-500, mEstimator.getYVelocity(0), DELTA);
+    }
+
+    @Test
+    public void unitsPerMillisecond() {
+        addTrace(0, 1000, 0, 0, 1.5f, 0, 12);
+        mEstimator.computeCurrentVelocity(1, NO_LIMIT);
+        assertEquals(1.5f, mEstimator.getXVelocity(0), DELTA);
+    }
+
+    @Test
+    public void ringBufferWrapsAround() {
+        // Many more samples than the history holds.
+        addTrace(0, 1000, 0, 0, 0, 2, 100);
+        mEstimator.computeCurrentVelocity(1000, NO_LIMIT);
+        assertEquals(2000, mEstimator.getYVelocity(0), DELTA);
+    }
+
+    @Test
+    public void samplesOutsideHorizonAreIgnored() {
+        // Slow for a while, then fast for longer than the horizon.
+        final long end = addTrace(0, 1000, 0, 0, 0, 0.5f, 30);
+        addTrace(0, end + SAMPLE_INTERVAL, 0, 0.5f * (end - 1000) + 3 * SAMPLE_INTERVAL, 0, 3, 20);
+        mEstimator.computeCurrentVelocity(1000, NO_LIMIT);
+        assertEquals(3000, mEstimator.getYVelocity(0), DELTA);
+    }
+
+    @Test
+    public void pointerStoppedBeforeLift() {
+        // The finger rests for longer than the stop gap before the last sample.
+        final long end = addTrace(0, 1000, 0, 0, 0, 2, 10);
+        mEstimator.addMovement(0, end + 50, 0, 2 * (end - 1000));
+        mEstimator.computeCurrentVelocity(1000, NO_LIMIT);
+        assertEquals(0, mEstimator.getYVelocity(0), 0);
+    }
+
+    @Test
+    public void directionReversalFollowsTheEnd() {
+        final long end = addTrace(0, 1000, 0, 0, 2, 0, 10);
+        addTrace(0, end + SAMPLE_INTERVAL, 2 * (end - 1000) - 2 * SAMPLE_INTERVAL, 0, -2, 0, 5);
+        mEstimator.computeCurrentVelocity(1000, NO_LIMIT);
+        assertTrue("Velocity " + mEstimator.getXVelocity(0), mEstimator.getXVelocity(0) < 0);
+    }
+
+    @Test
+    public void velocityIsClamped() {
+        addTrace(0, 1000, 0, 0, 1.5f, -1.5f, 12);
+        mEstimator.computeCurrentVelocity(1000, 1000);
+        assertEquals(1000, mEstimator.getXVelocity(0), 0);
+        assertEquals(-1000, mEstimator.getYVelocity(0), 0);
+    }
+
+    @Test
+    public void pointersAreIndependent() {
+        addTrace(0, 1000, 0, 0, 1, 0, 10);
+        addTrace(3, 1004, 0, 0, -2, 0, 10);
+        mEstimator.computeCurrentVelocity(1000, NO_LIMIT);
+        assertEquals(1000, mEstimator.getXVelocity(0), DELTA);
+        assertEquals(-2000, mEstimator.getXVelocity(3), DELTA);
+
+        mEstimator.clear(3);
+        mEstimator.computeCurrentVelocity(1000, NO_LIMIT);
+        assertEquals(1000, mEstimator.getXVelocity(0), DELTA);
+        assertEquals(0, mEstimator.getXVelocity(3), 0);
+
+        mEstimator.clear();
+        mEstimator.computeCurrentVelocity(1000, NO_LIMIT);
+        assertEquals(0, mEstimator.getXVelocity(0), 0);
+    }
+
+    @Test
+    public void invalidPointerIdsAreIgnored() {
+        mEstimator.addMovement(-1, 1000, 0, 0);
+        mEstimator.addMovement(32, 1000, 0, 0);
+        mEstimator.clear(32);
+        mEstimator.computeCurrentVelocity(1000, NO_LIMIT);
+        assertEquals(0, mEstimator.getXVelocity(-1), 0);
+        assertEquals(0, mEstimator.getXVelocity(32), 0);
+    }
+
+    @Test
+    public void doesNotAllocate() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        final com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+        final long threadId = Thread.currentThread().getId();
+        // Warm up, so nothing is counted for class loading or compilation.
+        replay(1000);
+        sunThreads.getThreadAllocatedBytes(threadId);
+
+        final long before = sunThreads.getThreadAllocatedBytes(threadId);
+        replay(100000);
+        final long allocated = sunThreads.getThreadAllocatedBytes(threadId) - before;
+        // Reading the counter may allocate a little, samples must not add to it.
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private void replay(int samples) {
+        for (int i = 0; i < samples; i++) {
+            mEstimator.addMovement(i % 2, i * SAMPLE_INTERVAL, i, -i);
+            mEstimator.computeCurrentVelocity(1000, NO_LIMIT);
+        }
+    }
+}
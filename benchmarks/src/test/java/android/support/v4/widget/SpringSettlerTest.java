@@ -0,0 +1,188 @@
+package android.support.v4.widget;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Samples {@link SpringSettler} settles the way frame callbacks do, on a regular grid and at
+ * arbitrary times.
+ */
+public class SpringSettlerTest {
+
+    /**
+     * Time between two frames at 60 Hz.
+     */
+    private static final long FRAME_INTERVAL = 16; // ms
+
+    /**
+     * Every settle of these tests is at rest well before this.
+     */
+    private static final long SETTLE_TIMEOUT = 5000; // ms
+
+    /**
+     * Sample the settle once per frame until it finishes.
+     *
+     * @return Time of the last sample
+     */
+    private static long runToRest(SpringSettler settler, long startTime) {
+        long time = startTime;
+        while (settler.computeOffset(time)) {
+            time += FRAME_INTERVAL;
+            assertTrue("Still settling at " + time, time - startTime < SETTLE_TIMEOUT);
+        }
+        return time;
+    }
+
+    @Test
+    public void restsAtTarget() {
+        final float[] dampingRatios = {0.5f, 1f, 2f};
+        for (float dampingRatio : dampingRatios) {
+            final SpringSettler settler = new SpringSettler(SpringSettler.STIFFNESS_MEDIUM, dampingRatio);
+            settler.start(0, 800, 300, 0, 2000, -500, 1000);
+            runToRest(settler, 1000);
+            assertTrue(settler.isFinished());
+            assertEquals(300, settler.getCurrX());
+            assertEquals(0, settler.getCurrY());
+            assertEquals(0, settler.getCurrVelocityX(), 0);
+            assertEquals(0, settler.getCurrVelocityY(), 0);
+        }
+    }
+
+    @Test
+    public void finishedSettleIsNotSampled() {
+        final SpringSettler settler = new SpringSettler();
+        assertFalse(settler.computeOffset(0));
+        settler.start(0, 0, 100, 100, 0, 0, 0);
+        settler.abortAnimation();
+        assertFalse(settler.computeOffset(16));
+        assertEquals(100, settler.getCurrX());
+        assertEquals(100, settler.getCurrY());
+    }
+
+    @Test
+    public void startsWhereAndAsFastAsGiven() {
+        final SpringSettler settler = new SpringSettler(SpringSettler.STIFFNESS_MEDIUM, 0.5f);
+        settler.start(10, 20, 300, 400, 1500, -700, 1000);
+        settler.computeOffset(1000);
+        assertEquals(10, settler.getCurrX());
+        assertEquals(20, settler.getCurrY());
+        assertEquals(1500, settler.getCurrVelocityX(), 0.5f);
+        assertEquals(-700, settler.getCurrVelocityY(), 0.5f);
+    }
+
+    @Test
+    public void retargetIsContinuous() {
+        final float[] dampingRatios = {0.5f, 1f, 2f};
+        for (float dampingRatio : dampingRatios) {
+            final SpringSettler settler = new SpringSettler(SpringSettler.STIFFNESS_MEDIUM, dampingRatio);
+            settler.start(0, 0, 0, 800, 0, 0, 0);
+            settler.computeOffset(48);
+            final int y = settler.getCurrY();
+            final float velocity = settler.getCurrVelocityY();
+            assertTrue("No velocity to carry over", velocity > 0);
+
+            // Retarget the way the drag helper does, from the last sample.
+            settler.start(settler.getCurrX(), y, 0, 200, settler.getCurrVelocityX(), velocity, 48);
+            settler.computeOffset(48);
+            assertEquals(y, settler.getCurrY());
+            assertEquals(velocity, settler.getCurrVelocityY(), 0.5f);
+
+            // A millisecond later it moved on about as far as the velocity takes it.
+            settler.computeOffset(49);
+            assertEquals(y + velocity / 1000, settler.getCurrY(), 1.5f);
+
+            runToRest(settler, 49);
+            assertEquals(200, settler.getCurrY());
+        }
+    }
+
+    @Test
+    public void bouncesPastTargetWithoutClamping() {
+        final SpringSettler settler = new SpringSettler(SpringSettler.STIFFNESS_MEDIUM, 0.3f);
+        settler.start(0, 0, 0, 500, 0, 0, 0);
+        int maxY = 0;
+        for (long time = 0; settler.computeOffset(time); time += FRAME_INTERVAL) {
+            maxY = Math.max(maxY, settler.getCurrY());
+        }
+        assertTrue("Never passed the target: " + maxY, maxY > 500);
+    }
+
+    @Test
+    public void overshootClampingStopsAtTarget() {
+        final SpringSettler settler = new SpringSettler(SpringSettler.STIFFNESS_MEDIUM, 0.3f);
+        settler.setOvershootClamping(true);
+        settler.start(0, 0, 0, 500, 0, 0, 0);
+        long time = 0;
+        while (settler.computeOffset(time)) {
+            assertTrue("Passed the target at " + time + ": " + settler.getCurrY(), settler.getCurrY() <= 500);
+            time += FRAME_INTERVAL;
+        }
+        // Stopped on the first frame past the target, not after the bounces died down.
+        final SpringSettler unclamped = new SpringSettler(SpringSettler.STIFFNESS_MEDIUM, 0.3f);
+        unclamped.start(0, 0, 0, 500, 0, 0, 0);
+        final long unclampedEnd = runToRest(unclamped, 0);
+        assertTrue("Clamped settle ended at " + time + ", unclamped at " + unclampedEnd, time < unclampedEnd);
+        assertEquals(500, settler.getCurrY());
+    }
+
+    @Test
+    public void overshootClampingStopsFlingPastTarget() {
+        // A critically damped spring passes the target once when thrown towards it.
+        final SpringSettler settler = new SpringSettler();
+        settler.setOvershootClamping(true);
+        settler.start(0, 0, 0, 100, 0, 20000, 0);
+        for (long time = 0; settler.computeOffset(time); time++) {
+            assertTrue("Passed the target at " + time + ": " + settler.getCurrY(), settler.getCurrY() <= 100);
+        }
+        assertEquals(100, settler.getCurrY());
+    }
+
+    @Test
+    public void samplesDoNotDependOnEarlierOnes() {
+        final SpringSettler dropped = new SpringSettler(SpringSettler.STIFFNESS_MEDIUM, 0.5f);
+        dropped.start(0, 0, 600, 900, 0, 3000, 1000);
+
+        // Frames dropped, late and sampled twice: every sample matches the regular settle.
+        final long[] times = {1016, 1017, 1100, 1100, 1133, 1250, 1251, 1400};
+        for (long time : times) {
+            dropped.computeOffset(time);
+            final SpringSettler fresh = new SpringSettler(SpringSettler.STIFFNESS_MEDIUM, 0.5f);
+            fresh.start(0, 0, 600, 900, 0, 3000, 1000);
+            for (long t = 1000; t < time; t += FRAME_INTERVAL) {
+                fresh.computeOffset(t);
+            }
+            fresh.computeOffset(time);
+            assertEquals("x at " + time, fresh.getCurrX(), dropped.getCurrX());
+            assertEquals("y at " + time, fresh.getCurrY(), dropped.getCurrY());
+            assertEquals("velocity at " + time, fresh.getCurrVelocityY(), dropped.getCurrVelocityY(), 0);
+        }
+
+        // Going back in time samples the earlier point again.
+        final int y = dropped.getCurrY();
+        dropped.computeOffset(1100);
+        dropped.computeOffset(1400);
+        assertEquals(y, dropped.getCurrY());
+    }
+
+    @Test
+    public void samplesBeforeStartAreAtStart() {
+        final SpringSettler settler = new SpringSettler();
+        settler.start(40, 50, 400, 500, 0, 0, 1000);
+        settler.computeOffset(900);
+        assertEquals(40, settler.getCurrX());
+        assertEquals(50, settler.getCurrY());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void stiffnessMustBePositive() {
+        new SpringSettler(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dampingRatioMustBePositive() {
+        new SpringSettler(SpringSettler.STIFFNESS_MEDIUM, 0);
+    }
+}
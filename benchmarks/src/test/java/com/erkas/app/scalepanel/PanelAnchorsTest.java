@@ -0,0 +1,97 @@
+package com.erkas.app.scalepanel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Snaps released panels with {@link PanelAnchors}, flung and not, to anchors around, on and
+ * outside the projected offset.
+ */
+public class PanelAnchorsTest {
+
+    private static final float[] ANCHORS = PanelAnchors.normalize(new float[] {0.6f, 0.3f});
+
+    /**
+     * Velocity that projects an offset the given distance further.
+     */
+    private static float velocityFor(float distance) {
+        return distance / PanelAnchors.FLING_PROJECTION_TIME;
+    }
+
+    private static float snap(float offset, float velocity) {
+        return PanelAnchors.computeSnapOffset(ANCHORS, offset, velocity);
+    }
+
+    @Test
+    public void normalizeAddsEndsSortsAndDropsDuplicates() {
+        assertArrayEquals(new float[] {0, 0.3f, 0.6f, 1}, ANCHORS, 0);
+        assertArrayEquals(new float[] {0, 1}, PanelAnchors.normalize(new float[0]), 0);
+        assertArrayEquals(new float[] {0, 0.5f, 1},
+                PanelAnchors.normalize(new float[] {1, 0.5f, 0, 0.5f}), 0);
+    }
+
+    @Test
+    public void restingPanelSnapsToNearestAnchor() {
+        assertEquals(0, snap(0.1f, 0), 0);
+        assertEquals(0.3f, snap(0.2f, 0), 0);
+        assertEquals(0.3f, snap(0.44f, 0), 0);
+        assertEquals(0.6f, snap(0.46f, 0), 0);
+        assertEquals(1, snap(0.85f, 0), 0);
+    }
+
+    @Test
+    public void restingPanelOnAnchorStays() {
+        for (float anchor : ANCHORS) {
+            assertEquals(anchor, snap(anchor, 0), 0);
+        }
+    }
+
+    @Test
+    public void flingSnapsNearProjection() {
+        // From 0.9 towards 0, projected to 0.25: nearest anchor is 0.3.
+        assertEquals(0.3f, snap(0.9f, velocityFor(-0.65f)), 0);
+        // From 0.1 towards 1, projected to 0.65.
+        assertEquals(0.6f, snap(0.1f, velocityFor(0.55f)), 0);
+    }
+
+    @Test
+    public void projectionOnAnchor() {
+        assertEquals(0.6f, snap(0.2f, velocityFor(0.4f)), 1e-6f);
+        assertEquals(0.3f, snap(0.8f, velocityFor(-0.5f)), 1e-6f);
+    }
+
+    @Test
+    public void projectionOutsideEndsSnapsToEnds() {
+        assertEquals(0, snap(0.5f, velocityFor(-3)), 0);
+        assertEquals(1, snap(0.5f, velocityFor(3)), 0);
+        assertEquals(0, snap(0, velocityFor(-1)), 0);
+        assertEquals(1, snap(1, velocityFor(1)), 0);
+    }
+
+    @Test
+    public void weakFlingMovesToNextAnchor() {
+        // The projection stays nearest to where the panel is, the fling still moves it on.
+        assertEquals(0.6f, snap(0.32f, velocityFor(0.01f)), 0);
+        assertEquals(0, snap(0.28f, velocityFor(-0.01f)), 0);
+        // From on an anchor, to the next one in the fling direction.
+        assertEquals(0.6f, snap(0.3f, velocityFor(0.01f)), 0);
+        assertEquals(0.3f, snap(0.6f, velocityFor(-0.01f)), 0);
+    }
+
+    @Test
+    public void manyAnchors() {
+        final float[] requested = new float[99];
+        for (int i = 0; i < requested.length; i++) {
+            requested[i] = (i + 1) / 100f;
+        }
+        final float[] anchors = PanelAnchors.normalize(requested);
+        assertEquals(101, anchors.length);
+        assertEquals(0.42f, PanelAnchors.computeSnapOffset(anchors, 0.421f, 0), 0);
+        assertEquals(0.43f, PanelAnchors.computeSnapOffset(anchors, 0.421f, velocityFor(0.001f)), 0);
+        // The nearest anchor already is in the direction of the fling.
+        assertEquals(0.42f, PanelAnchors.computeSnapOffset(anchors, 0.421f, velocityFor(-0.001f)), 0);
+        assertEquals(0.8f, PanelAnchors.computeSnapOffset(anchors, 0.5f, velocityFor(0.3f)), 1e-6f);
+    }
+}
@@ -0,0 +1,136 @@
+package com.erkas.app.scalepanel;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * One thread publishes to a {@link ScaleSnapshot} while others read it, every frame read must
+ * hold the values of a single publish.
+ */
+public class ScaleSnapshotTest {
+
+    private static final int PUBLISHES = 2000000;
+    private static final int READERS = 3;
+
+    /**
+     * Publish values all derived from n, the number of the publish. Nothing published yet
+     * reads as publish 0.
+     */
+    private static void publish(ScaleSnapshot snapshot, int n) {
+        snapshot.publish(n, -n, 2 * n, -n, n, 2 * n, 3 * n, n % 3);
+    }
+
+    /**
+     * @return null if the frame holds the values of a single publish, the problem otherwise
+     */
+    private static String checkConsistent(ScaleSnapshot.Frame frame) {
+        final int n = frame.sequence;
+        if (frame.scaleOffsetX != n || frame.scaleOffsetY != -n || frame.scaleOffset != 2 * n
+                || frame.left != -n || frame.top != n || frame.right != 2 * n
+                || frame.bottom != 3 * n || frame.state != n % 3) {
+            return "Torn frame " + n + ": offsets " + frame.scaleOffset + ", " + frame.scaleOffsetX
+                    + ", " + frame.scaleOffsetY + ", bounds " + frame.left + ", " + frame.top
+                    + ", " + frame.right + ", " + frame.bottom + ", state " + frame.state;
+        }
+        return null;
+    }
+
+    @Test
+    public void nothingPublishedReadsZero() {
+        final ScaleSnapshot.Frame frame = new ScaleSnapshot.Frame();
+        new ScaleSnapshot().read(frame);
+        assertNull(checkConsistent(frame));
+        assertEquals(0, frame.sequence);
+    }
+
+    @Test
+    public void readsLatestPublish() {
+        final ScaleSnapshot snapshot = new ScaleSnapshot();
+        final ScaleSnapshot.Frame frame = new ScaleSnapshot.Frame();
+        for (int n = 1; n <= 5; n++) {
+            publish(snapshot, n);
+            snapshot.read(frame);
+            assertNull(checkConsistent(frame));
+            assertEquals(n, frame.sequence);
+            assertEquals(2 * n, snapshot.getScaleOffset(), 0);
+        }
+    }
+
+    @Test
+    public void concurrentReadsAreConsistent() throws InterruptedException {
+        final ScaleSnapshot snapshot = new ScaleSnapshot();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final long[] reads = new long[READERS];
+        final int[] lastSeen = new int[READERS];
+        final Thread[] readers = new Thread[READERS];
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                awaitQuietly(start);
+                for (int n = 1; n <= PUBLISHES && failure.get() == null; n++) {
+                    publish(snapshot, n);
+                }
+            }
+        });
+
+        for (int i = 0; i < READERS; i++) {
+            final int reader = i;
+            readers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final ScaleSnapshot.Frame frame = new ScaleSnapshot.Frame();
+                    int previous = 0;
+                    awaitQuietly(start);
+                    while (writer.isAlive() || previous < PUBLISHES) {
+                        snapshot.read(frame);
+                        reads[reader]++;
+                        String problem = checkConsistent(frame);
+                        if (problem == null && frame.sequence < previous) {
+                            problem = "Went back from " + previous + " to " + frame.sequence;
+                        }
+                        if (problem != null) {
+                            failure.compareAndSet(null, problem);
+                            return;
+                        }
+                        previous = frame.sequence;
+                        if (failure.get() != null) {
+                            return;
+                        }
+                    }
+                    lastSeen[reader] = previous;
+                }
+            });
+        }
+
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        start.countDown();
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertNull(failure.get(), failure.get());
+        for (int i = 0; i < READERS; i++) {
+            assertTrue("Reader " + i + " read nothing", reads[i] > 0);
+            assertEquals("Reader " + i + " missed the last publish", PUBLISHES, lastSeen[i]);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
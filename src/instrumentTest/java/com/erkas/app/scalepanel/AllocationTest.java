@@ -0,0 +1,164 @@
+package com.erkas.app.scalepanel;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.v4.widget.ChoreographerCompat;
+import android.test.InstrumentationTestCase;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dragging a panel must not allocate on the UI thread: an ACTION_MOVE goes through the drag
+ * helper, moves the panel on the next frame and dispatches its offset with no garbage.
+ */
+public class AllocationTest extends InstrumentationTestCase {
+
+    private static final int WARM_UP_MOVES = 5;
+    private static final int COUNTED_MOVES = 20;
+    private static final long FRAME_TIMEOUT = 1000; // ms
+
+    private ScalePanelLayout mLayout;
+    private int mScaleCount;
+
+    private MotionEvent[] mMoves;
+    private int mNextMove;
+
+    /**
+     * Frames left to wait for after a move: the one applying the move and reporting it, and the
+     * next one running the dispatch callback posted with it.
+     */
+    private int mFramesLeft;
+    private final Semaphore mFramesDone = new Semaphore(0);
+    private final ChoreographerCompat.FrameCallback mFrameCallback = new ChoreographerCompat.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (--mFramesLeft > 0) {
+                ChoreographerCompat.getInstance().postFrameCallback(this);
+            } else {
+                mFramesDone.release();
+            }
+        }
+    };
+
+    private final Runnable mMoveAndWait = new Runnable() {
+        @Override
+        public void run() {
+            mLayout.onTouchEvent(mMoves[mNextMove++]);
+            postFrameWait();
+        }
+    };
+
+    private final Runnable mWait = new Runnable() {
+        @Override
+        public void run() {
+            postFrameWait();
+        }
+    };
+
+    private final Runnable mStartCounting = new Runnable() {
+        @Override
+        public void run() {
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+        }
+    };
+
+    private int mAllocations;
+
+    private final Runnable mStopCounting = new Runnable() {
+        @Override
+        public void run() {
+            Debug.stopAllocCounting();
+            mAllocations = Debug.getThreadAllocCount();
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLayout = TestLayouts.create(getInstrumentation().getTargetContext());
+                mLayout.setPanelScaleListener(new ScalePanelLayout.SimplePanelScaleListener() {
+                    @Override
+                    public void onPanelScale(View panel, float scaleOffset) {
+                        mScaleCount++;
+                    }
+                });
+            }
+        });
+    }
+
+    public void testDragDoesNotAllocate() throws Exception {
+        final long downTime = SystemClock.uptimeMillis();
+        final float x = TestLayouts.WIDTH / 2;
+        final int start = 10 + 2 * ViewConfiguration.get(
+                getInstrumentation().getTargetContext()).getScaledTouchSlop();
+
+        // Events are obtained up front, only their delivery and the frames after it are counted.
+        mMoves = new MotionEvent[WARM_UP_MOVES + COUNTED_MOVES];
+        for (int i = 0; i < mMoves.length; i++) {
+            mMoves[i] = MotionEvent.obtain(downTime, downTime + (i + 1) * 16,
+                    MotionEvent.ACTION_MOVE, x, start + i * 10, 0);
+        }
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                TestLayouts.touch(mLayout, downTime, MotionEvent.ACTION_DOWN, x, 10);
+            }
+        });
+
+        // Grab the panel and let the first moves fill any lazily allocated state.
+        for (int i = 0; i < WARM_UP_MOVES; i++) {
+            runAndWaitForFrames(mMoveAndWait);
+        }
+
+        // Frames themselves may allocate in the platform, count them without moves first.
+        final int frameAllocations = countAllocations(mWait);
+        mScaleCount = 0;
+        final int dragAllocations = countAllocations(mMoveAndWait);
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                TestLayouts.touch(mLayout, downTime, MotionEvent.ACTION_UP, x, start + 300);
+            }
+        });
+        for (MotionEvent move : mMoves) {
+            move.recycle();
+        }
+
+        assertEquals("Moves reported", COUNTED_MOVES, mScaleCount);
+        assertTrue("Allocations for " + COUNTED_MOVES + " moves: " + dragAllocations
+                + ", for as many frames without moves: " + frameAllocations,
+                dragAllocations <= frameAllocations);
+    }
+
+    /**
+     * @return Allocations on the main thread while running the task {@link #COUNTED_MOVES}
+     *         times, each time with the frames after it
+     */
+    private int countAllocations(Runnable task) throws InterruptedException {
+        getInstrumentation().runOnMainSync(mStartCounting);
+        for (int i = 0; i < COUNTED_MOVES; i++) {
+            runAndWaitForFrames(task);
+        }
+        getInstrumentation().runOnMainSync(mStopCounting);
+        return mAllocations;
+    }
+
+    private void runAndWaitForFrames(Runnable task) throws InterruptedException {
+        getInstrumentation().runOnMainSync(task);
+        assertTrue("No frame ran", mFramesDone.tryAcquire(FRAME_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    private void postFrameWait() {
+        mFramesLeft = 2;
+        ChoreographerCompat.getInstance().postFrameCallback(mFrameCallback);
+    }
+}
@@ -0,0 +1,40 @@
+package com.erkas.app.scalepanel;
+
+import android.test.InstrumentationTestCase;
+import android.test.UiThreadTest;
+import android.view.View;
+
+/**
+ * Behaviors are dropped with the child they are attached to, and behaviors following a removed
+ * panel go back to the default.
+ */
+public class BehaviorTest extends InstrumentationTestCase {
+
+    @UiThreadTest
+    public void testRemovedChildLosesBehavior() {
+        final ScalePanelLayout layout = TestLayouts.create(getInstrumentation().getTargetContext());
+        final View content = layout.getChildAt(0);
+        layout.setChildBehavior(content, new ScaleBehavior());
+
+        layout.removeView(content);
+        assertNull(((ScalePanelLayout.LayoutParams) content.getLayoutParams()).behavior);
+
+        // Added again with the same LayoutParams, it has no behavior to apply or count.
+        layout.addView(content, 0);
+        assertNull(layout.getChildBehavior(content));
+    }
+
+    @UiThreadTest
+    public void testBehaviorFollowingRemovedPanelFallsBack() {
+        final ScalePanelLayout layout = TestLayouts.create(getInstrumentation().getTargetContext());
+        final View content = layout.getChildAt(0);
+        final View panel = layout.getChildAt(1);
+        final ScaleBehavior behavior = new ScaleBehavior();
+        layout.setChildBehavior(content, behavior, panel);
+
+        layout.removeView(panel);
+        final ScalePanelLayout.LayoutParams lp = (ScalePanelLayout.LayoutParams) content.getLayoutParams();
+        assertSame(behavior, lp.behavior);
+        assertNull(lp.behaviorPanel);
+    }
+}
@@ -0,0 +1,109 @@
+package com.erkas.app.scalepanel;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.support.v4.widget.ViewDragHelperCustom;
+import android.test.InstrumentationTestCase;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+
+import java.util.ArrayList;
+
+/**
+ * A moving panel must invalidate what it was and is drawn over, and the children below it when
+ * the scrim over them changes, not the whole layout.
+ */
+public class InvalidationTest extends InstrumentationTestCase {
+
+    /**
+     * Records every rect the layout invalidates.
+     */
+    private static class RecordingLayout extends ScalePanelLayout {
+        final ArrayList<Rect> invalidated = new ArrayList<Rect>();
+
+        RecordingLayout(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void invalidate() {
+            invalidated.add(new Rect(0, 0, getWidth(), getHeight()));
+            super.invalidate();
+        }
+
+        @Override
+        public void invalidate(int l, int t, int r, int b) {
+            invalidated.add(new Rect(l, t, r, b));
+            super.invalidate(l, t, r, b);
+        }
+    }
+
+    private RecordingLayout mLayout;
+    private View mContent;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLayout = TestLayouts.populate(new RecordingLayout(getInstrumentation().getTargetContext()));
+                // Move the panel on every ACTION_MOVE, no frame runs within a single main thread task.
+                mLayout.setDragMode(ViewDragHelperCustom.DRAG_MODE_IMMEDIATE);
+                // Covered content in the top left corner only.
+                mContent = mLayout.getChildAt(0);
+                mContent.setLayoutParams(new ScalePanelLayout.LayoutParams(100, 100));
+                TestLayouts.layout(mLayout);
+            }
+        });
+    }
+
+    public void testDragWithoutScrimInvalidatesPanelOnly() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLayout.setCoveredFadeColor(0);
+                dragAndCheck(false);
+            }
+        });
+    }
+
+    public void testDragWithScrimInvalidatesCoveredChildren() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLayout.setCoveredFadeColor(0x99000000);
+                dragAndCheck(true);
+            }
+        });
+    }
+
+    /**
+     * Drag the panel down and check each move invalidated the panel's rows, and the covered
+     * content when expected, but never the bottom right corner neither of them reaches.
+     */
+    private void dragAndCheck(boolean scrim) {
+        final long downTime = SystemClock.uptimeMillis();
+        final float x = TestLayouts.WIDTH / 2;
+        final int start = 10 + 2 * ViewConfiguration.get(mLayout.getContext()).getScaledTouchSlop();
+        TestLayouts.touch(mLayout, downTime, MotionEvent.ACTION_DOWN, x, 10);
+        boolean contentInvalidated = false;
+        for (int y = start; y <= start + 300; y += 30) {
+            mLayout.invalidated.clear();
+            TestLayouts.touch(mLayout, downTime, MotionEvent.ACTION_MOVE, x, y);
+            assertFalse("Nothing invalidated at y " + y, mLayout.invalidated.isEmpty());
+            for (Rect dirty : mLayout.invalidated) {
+                assertFalse("Whole layout invalidated at y " + y + ": " + dirty,
+                        dirty.contains(TestLayouts.WIDTH - 1, TestLayouts.HEIGHT - 1));
+                contentInvalidated |= dirty.contains(mContent.getLeft(), mContent.getTop(),
+                        mContent.getRight(), mContent.getBottom());
+            }
+        }
+        TestLayouts.touch(mLayout, downTime, MotionEvent.ACTION_UP, x, start + 300);
+        if (scrim) {
+            assertTrue("Covered content not invalidated for the scrim", contentInvalidated);
+        }
+    }
+}
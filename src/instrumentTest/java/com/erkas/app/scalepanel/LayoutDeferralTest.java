@@ -0,0 +1,130 @@
+package com.erkas.app.scalepanel;
+
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.view.ViewGroup;
+
+/**
+ * Layout requests made while a panel moves must not lay out the layout before the movement
+ * ended, and must be reconciled with a layout once it did.
+ */
+public class LayoutDeferralTest extends InstrumentationTestCase {
+
+    private static final long SETTLE_TIMEOUT = 2000; // ms
+
+    private ScalePanelLayout mLayout;
+    private View mPanel;
+    private View mPanelChild;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLayout = TestLayouts.create(getInstrumentation().getTargetContext());
+                mPanel = mLayout.getChildAt(1);
+                mPanelChild = ((ViewGroup) mPanel).getChildAt(0);
+            }
+        });
+    }
+
+    public void testNoLayoutWhileDragging() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                assertFalse(mLayout.isLayoutRequested());
+                final long downTime = SystemClock.uptimeMillis();
+                final float x = TestLayouts.WIDTH / 2;
+                // Start past the touch slop, so every move drags the panel.
+                final int start = 10 + 2 * ViewConfiguration.get(mLayout.getContext()).getScaledTouchSlop();
+                TestLayouts.touch(mLayout, downTime, MotionEvent.ACTION_DOWN, x, 10);
+                for (int y = start; y <= start + 300; y += 30) {
+                    TestLayouts.touch(mLayout, downTime, MotionEvent.ACTION_MOVE, x, y);
+                    mPanelChild.requestLayout();
+                    assertFalse("Layout requested at y " + y, mLayout.isLayoutRequested());
+                }
+                TestLayouts.touch(mLayout, downTime, MotionEvent.ACTION_UP, x, start + 300);
+                mPanelChild.requestLayout();
+                assertFalse("Layout requested while settling", mLayout.isLayoutRequested());
+            }
+        });
+        assertLayoutRequestedEventually();
+    }
+
+    public void testNoLayoutWhilePinching() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLayout.setPinchEnabled(true);
+                final long downTime = SystemClock.uptimeMillis();
+                TestLayouts.touch(mLayout, downTime, MotionEvent.ACTION_DOWN, 100, 10);
+                pinch(downTime, MotionEvent.ACTION_POINTER_DOWN | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), 200);
+                for (int x = 220; x <= 400; x += 20) {
+                    pinch(downTime, MotionEvent.ACTION_MOVE, x);
+                    mPanelChild.requestLayout();
+                    assertFalse("Layout requested at x " + x, mLayout.isLayoutRequested());
+                }
+                pinch(downTime, MotionEvent.ACTION_POINTER_UP | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), 400);
+                TestLayouts.touch(mLayout, downTime, MotionEvent.ACTION_UP, 100, 10);
+            }
+        });
+        assertLayoutRequestedEventually();
+    }
+
+    public void testNoLayoutDuringNestedScroll() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // View.SCROLL_AXIS_VERTICAL
+                final int axes = 1 << 1;
+                assertTrue(mLayout.onStartNestedScroll(mPanel, mPanelChild, axes));
+                mLayout.onNestedScrollAccepted(mPanel, mPanelChild, axes);
+                mPanelChild.requestLayout();
+                assertFalse(mLayout.isLayoutRequested());
+                mLayout.onStopNestedScroll(mPanelChild);
+                assertTrue(mLayout.isLayoutRequested());
+            }
+        });
+    }
+
+    /**
+     * Send an event with a finger resting at (100, 10) and a second one at (x, 10).
+     */
+    private void pinch(long downTime, int action, float x) {
+        final MotionEvent.PointerCoords first = new MotionEvent.PointerCoords();
+        first.x = 100;
+        first.y = 10;
+        final MotionEvent.PointerCoords second = new MotionEvent.PointerCoords();
+        second.x = x;
+        second.y = 10;
+        final MotionEvent ev = MotionEvent.obtain(downTime, SystemClock.uptimeMillis(), action, 2,
+                new int[] {0, 1}, new MotionEvent.PointerCoords[] {first, second}, 0, 1, 1, 0, 0, 0, 0);
+        mLayout.dispatchTouchEvent(ev);
+        ev.recycle();
+    }
+
+    /**
+     * Wait for the panel to settle, which flushes the layout requests held back.
+     */
+    private void assertLayoutRequestedEventually() throws InterruptedException {
+        final long end = SystemClock.uptimeMillis() + SETTLE_TIMEOUT;
+        final boolean[] requested = new boolean[1];
+        while (SystemClock.uptimeMillis() < end) {
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    requested[0] = mLayout.isLayoutRequested();
+                }
+            });
+            if (requested[0]) {
+                return;
+            }
+            Thread.sleep(16);
+        }
+        fail("Held back layout was never requested");
+    }
+}
@@ -0,0 +1,108 @@
+package com.erkas.app.scalepanel;
+
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.support.v4.widget.ViewDragHelperCustom;
+import android.test.InstrumentationTestCase;
+import android.view.MotionEvent;
+import android.view.ViewConfiguration;
+
+/**
+ * Panels come back where they were saved: a dragged panel at its exact offset, a settling one
+ * resuming its settle once laid out, never from within the layout pass itself.
+ */
+public class SavedStateTest extends InstrumentationTestCase {
+
+    private static final long SETTLE_TIMEOUT = 2000; // ms
+
+    private ScalePanelLayout mLayout;
+    private ScalePanelLayout mRestored;
+    private Parcelable mState;
+    private float mSavedOffset;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLayout = TestLayouts.create(getInstrumentation().getTargetContext());
+                // Move the panel on every ACTION_MOVE, no frame runs within a single main thread task.
+                mLayout.setDragMode(ViewDragHelperCustom.DRAG_MODE_IMMEDIATE);
+            }
+        });
+    }
+
+    public void testDraggedPanelIsRestoredAtItsOffset() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final long downTime = drag();
+                saveAndRestore();
+                TestLayouts.touch(mLayout, downTime, MotionEvent.ACTION_UP, TestLayouts.WIDTH / 2, 200);
+                assertTrue("Saved offset " + mSavedOffset + " is not partial",
+                        mSavedOffset > 0 && mSavedOffset < 1);
+
+                final ScalePanelLayout.LayoutParams lp = getRestoredPanelParams();
+                assertEquals(mSavedOffset, lp.scaleOffsetY, 0);
+                assertFalse("Held panel resumes a settle", lp.resumeSettle);
+            }
+        });
+    }
+
+    public void testSettleResumesAfterLayout() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final long downTime = drag();
+                TestLayouts.touch(mLayout, downTime, MotionEvent.ACTION_UP, TestLayouts.WIDTH / 2, 200);
+                saveAndRestore();
+
+                final ScalePanelLayout.LayoutParams lp = getRestoredPanelParams();
+                assertEquals("Panel moved within layout", mSavedOffset, lp.scaleOffsetY, 0);
+                assertTrue(lp.resumeSettle);
+            }
+        });
+
+        final long end = SystemClock.uptimeMillis() + SETTLE_TIMEOUT;
+        final boolean[] moved = new boolean[1];
+        while (SystemClock.uptimeMillis() < end && !moved[0]) {
+            Thread.sleep(16);
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    moved[0] = getRestoredPanelParams().scaleOffsetY != mSavedOffset;
+                }
+            });
+        }
+        assertTrue("Restored settle never resumed", moved[0]);
+    }
+
+    /**
+     * Drag the panel partway open and keep the finger down.
+     *
+     * @return Down time of the gesture
+     */
+    private long drag() {
+        final long downTime = SystemClock.uptimeMillis();
+        final float x = TestLayouts.WIDTH / 2;
+        final int start = 10 + 2 * ViewConfiguration.get(mLayout.getContext()).getScaledTouchSlop();
+        TestLayouts.touch(mLayout, downTime, MotionEvent.ACTION_DOWN, x, 10);
+        for (int y = start; y <= start + 180; y += 30) {
+            TestLayouts.touch(mLayout, downTime, MotionEvent.ACTION_MOVE, x, y);
+        }
+        return downTime;
+    }
+
+    private void saveAndRestore() {
+        mSavedOffset = ((ScalePanelLayout.LayoutParams) mLayout.getChildAt(1).getLayoutParams()).scaleOffsetY;
+        mState = mLayout.onSaveInstanceState();
+        mRestored = TestLayouts.create(getInstrumentation().getTargetContext());
+        mRestored.onRestoreInstanceState(mState);
+        TestLayouts.layout(mRestored);
+    }
+
+    private ScalePanelLayout.LayoutParams getRestoredPanelParams() {
+        return (ScalePanelLayout.LayoutParams) mRestored.getChildAt(1).getLayoutParams();
+    }
+}
@@ -0,0 +1,64 @@
+package com.erkas.app.scalepanel;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.view.Gravity;
+import android.view.MotionEvent;
+import android.view.View;
+import android.widget.FrameLayout;
+
+/**
+ * Layouts built in code for the tests, measured and laid out without a window.
+ */
+final class TestLayouts {
+
+    static final int WIDTH = 480;
+    static final int HEIGHT = 800;
+
+    private TestLayouts() {
+    }
+
+    /**
+     * A layout holding a content view and a collapsed, top gravity panel with a single child.
+     * Children are reachable through {@link ScalePanelLayout#getChildAt(int)}: the content at 0,
+     * the panel at 1.
+     */
+    static ScalePanelLayout create(Context context) {
+        return populate(new ScalePanelLayout(context));
+    }
+
+    /**
+     * Add the children of {@link #create(Context)} to an empty layout and lay it out.
+     */
+    static <T extends ScalePanelLayout> T populate(T layout) {
+        final Context context = layout.getContext();
+
+        final View content = new View(context);
+        layout.addView(content, new ScalePanelLayout.LayoutParams(
+                ScalePanelLayout.LayoutParams.MATCH_PARENT, ScalePanelLayout.LayoutParams.MATCH_PARENT));
+
+        final FrameLayout panel = new FrameLayout(context);
+        panel.addView(new View(context), new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT));
+        final ScalePanelLayout.LayoutParams lp = new ScalePanelLayout.LayoutParams(
+                ScalePanelLayout.LayoutParams.MATCH_PARENT, ScalePanelLayout.LayoutParams.MATCH_PARENT,
+                Gravity.TOP | Gravity.LEFT);
+        lp.scaleable = true;
+        layout.addView(panel, lp);
+
+        layout(layout);
+        return layout;
+    }
+
+    static void layout(ScalePanelLayout layout) {
+        layout.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        layout.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    static void touch(View view, long downTime, int action, float x, float y) {
+        final MotionEvent ev = MotionEvent.obtain(downTime, SystemClock.uptimeMillis(), action, x, y, 0);
+        view.dispatchTouchEvent(ev);
+        ev.recycle();
+    }
+}
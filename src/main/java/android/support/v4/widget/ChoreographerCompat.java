@@ -0,0 +1,130 @@
+package android.support.v4.widget;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * Frame callbacks on the thread's Choreographer on Jelly Bean and up, and on a Handler posting
+ * on a fixed frame grid before that. Frame times are converted to the
+ * {@link SystemClock#uptimeMillis()} base, in nanoseconds, which is the base of MotionEvent
+ * times. Callers compare frame times with event times, and rely on that conversion to do so.
+ */
+public abstract class ChoreographerCompat {
+
+    /**
+     * Frame interval used when there is no Choreographer, about one frame at 60 Hz. Callbacks run
+     * on the next multiple of it, so the ones posted during a frame run together.
+     */
+    private static final long FALLBACK_FRAME_INTERVAL = 16; // ms
+
+    private static final ThreadLocal<ChoreographerCompat> sInstance = new ThreadLocal<ChoreographerCompat>() {
+        @Override
+        protected ChoreographerCompat initialValue() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                return new ChoreographerCompatJB();
+            }
+            return new ChoreographerCompatBase(Looper.myLooper());
+        }
+    };
+
+    /**
+     * @return The instance for the calling thread, which must have a Looper.
+     */
+    public static ChoreographerCompat getInstance() {
+        return sInstance.get();
+    }
+
+    /**
+     * Run the callback once, on the next frame.
+     */
+    public abstract void postFrameCallback(FrameCallback callback);
+
+    /**
+     * Remove a posted callback, if it did not run yet.
+     */
+    public abstract void removeFrameCallback(FrameCallback callback);
+
+    /**
+     * Callback run on a frame. Keep one instance around and post it again as needed, it holds
+     * the platform objects it is posted with.
+     */
+    public static abstract class FrameCallback {
+        private Choreographer.FrameCallback mFrameCallback;
+        private Runnable mRunnable;
+
+        /**
+         * @param frameTimeNanos Time the frame started rendering, in nanoseconds in the
+         *                       {@link SystemClock#uptimeMillis()} base
+         */
+        public abstract void doFrame(long frameTimeNanos);
+
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+        Choreographer.FrameCallback getFrameCallback() {
+            if (mFrameCallback == null) {
+                mFrameCallback = new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        FrameCallback.this.doFrame(frameTimeNanos + sNanoTimeToUptime);
+                    }
+                };
+            }
+            return mFrameCallback;
+        }
+
+        Runnable getRunnable() {
+            if (mRunnable == null) {
+                mRunnable = new Runnable() {
+                    @Override
+                    public void run() {
+                        doFrame(SystemClock.uptimeMillis() * 1000000L);
+                    }
+                };
+            }
+            return mRunnable;
+        }
+    }
+
+    /**
+     * Offset from the {@link System#nanoTime()} base of Choreographer frame times to the uptime
+     * base. Both clocks are monotonic and stopped in deep sleep, so it is taken once.
+     */
+    private static final long sNanoTimeToUptime = SystemClock.uptimeMillis() * 1000000L - System.nanoTime();
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class ChoreographerCompatJB extends ChoreographerCompat {
+        private final Choreographer mChoreographer = Choreographer.getInstance();
+
+        @Override
+        public void postFrameCallback(FrameCallback callback) {
+            mChoreographer.postFrameCallback(callback.getFrameCallback());
+        }
+
+        @Override
+        public void removeFrameCallback(FrameCallback callback) {
+            mChoreographer.removeFrameCallback(callback.getFrameCallback());
+        }
+    }
+
+    private static class ChoreographerCompatBase extends ChoreographerCompat {
+        private final Handler mHandler;
+
+        ChoreographerCompatBase(Looper looper) {
+            mHandler = new Handler(looper);
+        }
+
+        @Override
+        public void postFrameCallback(FrameCallback callback) {
+            final long now = SystemClock.uptimeMillis();
+            mHandler.postDelayed(callback.getRunnable(), FALLBACK_FRAME_INTERVAL - now % FALLBACK_FRAME_INTERVAL);
+        }
+
+        @Override
+        public void removeFrameCallback(FrameCallback callback) {
+            mHandler.removeCallbacks(callback.getRunnable());
+        }
+    }
+}
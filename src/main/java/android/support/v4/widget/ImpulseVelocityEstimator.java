@@ -0,0 +1,171 @@
+package android.support.v4.widget;
+
+/**
+ * {@link VelocityEstimator} that treats the pointer as a mass pushed by every sample and reports
+ * the velocity matching the kinetic energy it ends up with. Recent direction changes dominate the
+ * result, which makes fling decisions follow the end of the gesture closely.
+ *
+ * <p>Samples are kept in a fixed primitive ring buffer per pointer, nothing is allocated after
+ * construction.</p>
+ */
+public class ImpulseVelocityEstimator implements VelocityEstimator {
+
+    // MotionEvent pointer ids are in [0, 31].
+    private static final int MAX_POINTERS = 32;
+
+    /**
+     * Samples kept per pointer.
+     */
+    private static final int HISTORY_SIZE = 20;
+
+    /**
+     * Samples older than this, relative to the newest one, are not used.
+     */
+    private static final long HORIZON = 100; // ms
+
+    /**
+     * A gap this long between two samples means the pointer stopped in between, older samples
+     * are not used.
+     */
+    private static final long ASSUME_POINTER_STOPPED_TIME = 40; // ms
+
+    private final long[] mTime = new long[MAX_POINTERS * HISTORY_SIZE];
+    private final float[] mX = new float[MAX_POINTERS * HISTORY_SIZE];
+    private final float[] mY = new float[MAX_POINTERS * HISTORY_SIZE];
+
+    // Ring buffer index of the newest sample and number of samples, per pointer.
+    private final int[] mHead = new int[MAX_POINTERS];
+    private final int[] mCount = new int[MAX_POINTERS];
+
+    private final float[] mXVelocity = new float[MAX_POINTERS];
+    private final float[] mYVelocity = new float[MAX_POINTERS];
+
+    @Override
+    public void addMovement(int pointerId, long eventTime, float x, float y) {
+        if (pointerId < 0 || pointerId >= MAX_POINTERS) {
+            return;
+        }
+        final int head = (mHead[pointerId] + 1) % HISTORY_SIZE;
+        final int index = pointerId * HISTORY_SIZE + head;
+        mTime[index] = eventTime;
+        mX[index] = x;
+        mY[index] = y;
+        mHead[pointerId] = head;
+        if (mCount[pointerId] < HISTORY_SIZE) {
+            mCount[pointerId]++;
+        }
+    }
+
+    @Override
+    public void clear(int pointerId) {
+        if (pointerId < 0 || pointerId >= MAX_POINTERS) {
+            return;
+        }
+        mCount[pointerId] = 0;
+        mXVelocity[pointerId] = 0;
+        mYVelocity[pointerId] = 0;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < MAX_POINTERS; i++) {
+            clear(i);
+        }
+    }
+
+    @Override
+    public void computeCurrentVelocity(int units, float maxVelocity) {
+        for (int pointerId = 0; pointerId < MAX_POINTERS; pointerId++) {
+            if (mCount[pointerId] == 0) {
+                continue;
+            }
+            final int count = countUsableSamples(pointerId);
+            mXVelocity[pointerId] = clamp(computeImpulseVelocity(pointerId, count, mX) * units, maxVelocity);
+            mYVelocity[pointerId] = clamp(computeImpulseVelocity(pointerId, count, mY) * units, maxVelocity);
+        }
+    }
+
+    @Override
+    public float getXVelocity(int pointerId) {
+        return pointerId >= 0 && pointerId < MAX_POINTERS ? mXVelocity[pointerId] : 0;
+    }
+
+    @Override
+    public float getYVelocity(int pointerId) {
+        return pointerId >= 0 && pointerId < MAX_POINTERS ? mYVelocity[pointerId] : 0;
+    }
+
+    /**
+     * @return How many of the newest samples of the pointer are within the horizon and not
+     *         separated by a stop.
+     */
+    private int countUsableSamples(int pointerId) {
+        final int base = pointerId * HISTORY_SIZE;
+        int index = mHead[pointerId];
+        final long newest = mTime[base + index];
+        long previous = newest;
+        int count = 0;
+        while (count < mCount[pointerId]) {
+            final long time = mTime[base + index];
+            if (newest - time > HORIZON || previous - time > ASSUME_POINTER_STOPPED_TIME) {
+                break;
+            }
+            previous = time;
+            count++;
+            index = (index + HISTORY_SIZE - 1) % HISTORY_SIZE;
+        }
+        return count;
+    }
+
+    /**
+     * Velocity in units per millisecond from the given number of newest samples, walked from the
+     * oldest to the newest.
+     */
+    private float computeImpulseVelocity(int pointerId, int count, float[] position) {
+        if (count < 2) {
+            return 0;
+        }
+        final int base = pointerId * HISTORY_SIZE;
+        int previous = (mHead[pointerId] + HISTORY_SIZE - count + 1) % HISTORY_SIZE;
+
+        if (count == 2) {
+            final int newest = (previous + 1) % HISTORY_SIZE;
+            final long dt = mTime[base + newest] - mTime[base + previous];
+            return dt == 0 ? 0 : (position[base + newest] - position[base + previous]) / dt;
+        }
+
+        float work = 0;
+        for (int i = 1; i < count; i++) {
+            final int current = (previous + 1) % HISTORY_SIZE;
+            final long dt = mTime[base + current] - mTime[base + previous];
+            if (dt != 0) {
+                final float vPrevious = kineticEnergyToVelocity(work);
+                final float vCurrent = (position[base + current] - position[base + previous]) / dt;
+                work += (vCurrent - vPrevious) * Math.abs(vCurrent);
+                if (i == 1) {
+                    // The first segment only gets the pointer moving, it does not add energy twice.
+                    work *= 0.5f;
+                }
+            }
+            previous = current;
+        }
+        return kineticEnergyToVelocity(work);
+    }
+
+    /**
+     * Velocity of a unit mass with the given kinetic energy, keeping the sign of the work done.
+     */
+    private static float kineticEnergyToVelocity(float work) {
+        return (work < 0 ? -1.0f : 1.0f) * (float) Math.sqrt(2 * Math.abs(work));
+    }
+
+    private static float clamp(float velocity, float maxVelocity) {
+        if (velocity > maxVelocity) {
+            return maxVelocity;
+        }
+        if (velocity < -maxVelocity) {
+            return -maxVelocity;
+        }
+        return velocity;
+    }
+}
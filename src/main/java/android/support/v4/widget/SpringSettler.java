@@ -0,0 +1,239 @@
+package android.support.v4.widget;
+
+/**
+ * Settles a point on two axes with a damped spring, in place of a fixed duration scroll.
+ *
+ * <p>The spring is solved in closed form: a settle is described by its start time and a few
+ * coefficients per axis, and any time can be sampled directly, so frame drops and late frames do
+ * not change the path. The velocity at the sampled time is known as well, so a settle that is
+ * restarted towards another target continues from the current velocity instead of from rest.</p>
+ *
+ * <p>Only primitives are used and nothing is allocated after construction, so the settler can
+ * be run and benchmarked on a plain JVM.</p>
+ */
+public class SpringSettler {
+
+    /**
+     * Stiffness of a spring that settles a full screen in about a quarter second.
+     */
+    public static final float STIFFNESS_MEDIUM = 1500f;
+
+    /**
+     * Damping ratio of a spring that settles as fast as it can without overshooting.
+     */
+    public static final float DAMPING_RATIO_NO_BOUNCY = 1f;
+
+    /**
+     * Settles end once closer than this to the target, in pixels, ...
+     */
+    private static final float REST_DISPLACEMENT = 0.5f;
+
+    /**
+     * ... and slower than this, in pixels per second.
+     */
+    private static final float REST_VELOCITY = 60f;
+
+    private static final int X = 0;
+    private static final int Y = 1;
+
+    private final double mNaturalFrequency;
+    private final double mDampingRatio;
+
+    // Frequency of the oscillation of an under damped spring, roots of an over damped one.
+    private final double mDampedFrequency;
+    private final double mRoot1;
+    private final double mRoot2;
+
+    private boolean mOvershootClamping;
+
+    private long mStartTime;
+    private boolean mFinished = true;
+
+    // Per axis: target, coefficients of the displacement from it, and the last sample.
+    private final int[] mFinal = new int[2];
+    private final double[] mCoefA = new double[2];
+    private final double[] mCoefB = new double[2];
+    private final boolean[] mClamped = new boolean[2];
+    private final int[] mCurr = new int[2];
+    private final float[] mVelocity = new float[2];
+
+    public SpringSettler() {
+        this(STIFFNESS_MEDIUM, DAMPING_RATIO_NO_BOUNCY);
+    }
+
+    /**
+     * @param stiffness Stiffness of the spring for a unit mass, larger settles faster
+     * @param dampingRatio Damping ratio of the spring, 1 for critical damping, less than 1 to
+     *                     bounce around the target
+     */
+    public SpringSettler(float stiffness, float dampingRatio) {
+        if (stiffness <= 0) {
+            throw new IllegalArgumentException("Spring stiffness must be positive");
+        }
+        if (dampingRatio <= 0) {
+            throw new IllegalArgumentException("Spring damping ratio must be positive");
+        }
+        mNaturalFrequency = Math.sqrt(stiffness);
+        mDampingRatio = dampingRatio;
+        if (dampingRatio < 1) {
+            mDampedFrequency = mNaturalFrequency * Math.sqrt(1 - dampingRatio * dampingRatio);
+            mRoot1 = mRoot2 = 0;
+        } else if (dampingRatio > 1) {
+            final double root = Math.sqrt(dampingRatio * dampingRatio - 1);
+            mDampedFrequency = 0;
+            mRoot1 = -mNaturalFrequency * (dampingRatio - root);
+            mRoot2 = -mNaturalFrequency * (dampingRatio + root);
+        } else {
+            mDampedFrequency = mRoot1 = mRoot2 = 0;
+        }
+    }
+
+    /**
+     * Set whether an axis stops at its target instead of passing it. A critically or over damped
+     * spring passes its target at most once, when started with a velocity towards it.
+     */
+    public void setOvershootClamping(boolean clamping) {
+        mOvershootClamping = clamping;
+    }
+
+    /**
+     * Start settling from the given position and velocity.
+     *
+     * @param velocityX Initial horizontal velocity in pixels per second
+     * @param velocityY Initial vertical velocity in pixels per second
+     * @param startTime Start time in milliseconds, in the time base later samples are taken in
+     */
+    public void start(int startX, int startY, int finalX, int finalY,
+                      float velocityX, float velocityY, long startTime) {
+        mStartTime = startTime;
+        mFinished = false;
+        startAxis(X, startX, finalX, velocityX);
+        startAxis(Y, startY, finalY, velocityY);
+    }
+
+    private void startAxis(int axis, int start, int target, float velocity) {
+        final double displacement = start - target;
+        mFinal[axis] = target;
+        mCurr[axis] = start;
+        mVelocity[axis] = velocity;
+        mClamped[axis] = false;
+        mCoefA[axis] = displacement;
+        if (mDampingRatio < 1) {
+            mCoefB[axis] = (velocity + mDampingRatio * mNaturalFrequency * displacement) / mDampedFrequency;
+        } else if (mDampingRatio > 1) {
+            // A holds the coefficient of the first root, B of the second.
+            mCoefB[axis] = (velocity - mRoot1 * displacement) / (mRoot2 - mRoot1);
+            mCoefA[axis] = displacement - mCoefB[axis];
+        } else {
+            mCoefB[axis] = velocity + mNaturalFrequency * displacement;
+        }
+    }
+
+    /**
+     * Sample the settle at the given time.
+     *
+     * @param time Time in milliseconds, in the time base of {@link #start}
+     * @return false if the settle had already finished before this call
+     */
+    public boolean computeOffset(long time) {
+        if (mFinished) {
+            return false;
+        }
+        final double t = Math.max(0, time - mStartTime) / 1000.0;
+        final boolean restX = computeAxis(X, t);
+        final boolean restY = computeAxis(Y, t);
+        if (restX && restY) {
+            abortAnimation();
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the axis is at rest
+     */
+    private boolean computeAxis(int axis, double t) {
+        if (mClamped[axis]) {
+            return true;
+        }
+        double displacement;
+        double velocity;
+        if (mDampingRatio < 1) {
+            final double decay = Math.exp(-mDampingRatio * mNaturalFrequency * t);
+            final double cos = Math.cos(mDampedFrequency * t);
+            final double sin = Math.sin(mDampedFrequency * t);
+            final double a = mCoefA[axis];
+            final double b = mCoefB[axis];
+            final double zw = mDampingRatio * mNaturalFrequency;
+            displacement = decay * (a * cos + b * sin);
+            velocity = decay * ((b * mDampedFrequency - zw * a) * cos - (a * mDampedFrequency + zw * b) * sin);
+        } else if (mDampingRatio > 1) {
+            final double e1 = mCoefA[axis] * Math.exp(mRoot1 * t);
+            final double e2 = mCoefB[axis] * Math.exp(mRoot2 * t);
+            displacement = e1 + e2;
+            velocity = mRoot1 * e1 + mRoot2 * e2;
+        } else {
+            final double decay = Math.exp(-mNaturalFrequency * t);
+            final double a = mCoefA[axis];
+            final double b = mCoefB[axis];
+            displacement = (a + b * t) * decay;
+            velocity = (b - mNaturalFrequency * (a + b * t)) * decay;
+        }
+
+        final double initial = mDampingRatio > 1 ? mCoefA[axis] + mCoefB[axis] : mCoefA[axis];
+        if (mOvershootClamping && initial != 0 && (displacement > 0) != (initial > 0)) {
+            mClamped[axis] = true;
+            displacement = 0;
+            velocity = 0;
+        }
+
+        mCurr[axis] = mFinal[axis] + (int) Math.round(displacement);
+        mVelocity[axis] = (float) velocity;
+        return mClamped[axis]
+                || (Math.abs(displacement) < REST_DISPLACEMENT && Math.abs(velocity) < REST_VELOCITY);
+    }
+
+    /**
+     * Stop the settle at its target.
+     */
+    public void abortAnimation() {
+        mCurr[X] = mFinal[X];
+        mCurr[Y] = mFinal[Y];
+        mVelocity[X] = 0;
+        mVelocity[Y] = 0;
+        mFinished = true;
+    }
+
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    public int getCurrX() {
+        return mCurr[X];
+    }
+
+    public int getCurrY() {
+        return mCurr[Y];
+    }
+
+    public int getFinalX() {
+        return mFinal[X];
+    }
+
+    public int getFinalY() {
+        return mFinal[Y];
+    }
+
+    /**
+     * @return Horizontal velocity at the last sample, in pixels per second
+     */
+    public float getCurrVelocityX() {
+        return mVelocity[X];
+    }
+
+    /**
+     * @return Vertical velocity at the last sample, in pixels per second
+     */
+    public float getCurrVelocityY() {
+        return mVelocity[Y];
+    }
+}
@@ -0,0 +1,52 @@
+package android.support.v4.widget;
+
+/**
+ * Estimates pointer velocities from movement samples, in place of the platform
+ * {@link android.view.VelocityTracker}.
+ *
+ * <p>Implementations only deal with primitives and must not depend on Android classes, so they
+ * can be run and benchmarked on a plain JVM against recorded touch traces.</p>
+ *
+ * @see ViewDragHelperCustom#setVelocityEstimator(VelocityEstimator)
+ */
+public interface VelocityEstimator {
+
+    /**
+     * Add a movement sample for a pointer. Samples of a pointer are added in time order.
+     *
+     * @param pointerId pointer ID as provided by MotionEvent
+     * @param eventTime time of the sample in milliseconds
+     * @param x x position of the pointer
+     * @param y y position of the pointer
+     */
+    void addMovement(int pointerId, long eventTime, float x, float y);
+
+    /**
+     * Forget the samples of a pointer, called when it goes down.
+     */
+    void clear(int pointerId);
+
+    /**
+     * Forget the samples of all pointers.
+     */
+    void clear();
+
+    /**
+     * Compute the current velocity of every pointer from the samples added so far.
+     *
+     * @param units The units to report velocity in, 1 for pixels per millisecond and 1000 for
+     *              pixels per second
+     * @param maxVelocity Maximum absolute velocity that can be reported, in the given units
+     */
+    void computeCurrentVelocity(int units, float maxVelocity);
+
+    /**
+     * @return The x velocity of the pointer from the last {@link #computeCurrentVelocity(int, float)}
+     */
+    float getXVelocity(int pointerId);
+
+    /**
+     * @return The y velocity of the pointer from the last {@link #computeCurrentVelocity(int, float)}
+     */
+    float getYVelocity(int pointerId);
+}
@@ -27,6 +27,7 @@ import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
+import android.view.animation.AnimationUtils;
 import android.view.animation.Interpolator;
 
 import java.util.Arrays;
@@ -101,10 +102,43 @@ public class ViewDragHelperCustom {
      */
     public static final int DIRECTION_ALL = DIRECTION_HORIZONTAL | DIRECTION_VERTICAL;
 
+    /**
+     * The captured view is dragged once for every MotionEvent.
+     */
+    public static final int DRAG_MODE_IMMEDIATE = 0;
+
+    /**
+     * The latest pointer position is kept and the captured view is dragged to it once per frame.
+     */
+    public static final int DRAG_MODE_COALESCED = 1;
+
+    /**
+     * Like {@link #DRAG_MODE_COALESCED}, with the pointer position resampled to the frame time
+     * from all samples of the frame, including the batched historical ones.
+     */
+    public static final int DRAG_MODE_RESAMPLED = 2;
+
     private static final int EDGE_SIZE = 20; // dp
 
-    private static final int BASE_SETTLE_DURATION = 256; // ms
-    private static final int MAX_SETTLE_DURATION = 600; // ms
+    /**
+     * Drag positions are resampled this long before the frame time, so there usually is a real
+     * sample on both sides of the resampled point.
+     */
+    private static final long RESAMPLE_LATENCY = 5; // ms
+
+    /**
+     * Prediction past the newest sample is limited to this.
+     */
+    private static final long RESAMPLE_MAX_PREDICTION = 8; // ms
+
+    /**
+     * Samples closer than this are too noisy to predict from, further apart than this the
+     * pointer is taken to have stopped.
+     */
+    private static final long RESAMPLE_MIN_DELTA = 2; // ms
+    private static final long RESAMPLE_MAX_DELTA = 20; // ms
+
+    private static final int RESAMPLE_HISTORY_SIZE = 16;
 
     // Current drag state; idle, dragging or settling
     private int mDragState;
@@ -114,16 +148,24 @@ public class ViewDragHelperCustom {
 
     // Last known position/pointer tracking
     private int mActivePointerId = INVALID_POINTER;
-    private float[] mInitialMotionX;
-    private float[] mInitialMotionY;
-    private float[] mLastMotionX;
-    private float[] mLastMotionY;
-    private int[] mInitialEdgesTouched;
-    private int[] mEdgeDragsInProgress;
-    private int[] mEdgeDragsLocked;
+    private final PointerTable mPointers = new PointerTable();
     private int mPointersDown;
 
+    // Drag samples of the active pointer, applied once per frame unless dragging immediately
+    private int mDragMode = DRAG_MODE_IMMEDIATE;
+    private final long[] mResampleTime = new long[RESAMPLE_HISTORY_SIZE];
+    private final float[] mResampleX = new float[RESAMPLE_HISTORY_SIZE];
+    private final float[] mResampleY = new float[RESAMPLE_HISTORY_SIZE];
+    private int mResampleHead;
+    private int mResampleCount;
+    private float mAppliedX;
+    private float mAppliedY;
+    private boolean mResampleFramePosted;
+    private boolean mApplyingDragFrame;
+    private ChoreographerCompat.FrameCallback mResampleCallback;
+
     private VelocityTracker mVelocityTracker;
+    private VelocityEstimator mVelocityEstimator;
     private float mMaxVelocity;
     private float mMinVelocity;
 
@@ -132,6 +174,14 @@ public class ViewDragHelperCustom {
 
     private ScrollerCompat mScroller;
 
+    /**
+     * Settles run on the spring, flings on the scroller. Settles started through the position
+     * methods move the captured view by the change of its callback positions.
+     */
+    private final SpringSettler mSpring = new SpringSettler();
+    private boolean mSpringSettling;
+    private boolean mSettlingByPosition;
+
     private final Callback mCallback;
 
     private View mCapturedView;
@@ -319,10 +369,36 @@ public class ViewDragHelperCustom {
         public int clampViewPositionVertical(View child, int top, int dy) {
             return 0;
         }
+
+        /**
+         * Return the current position of the child along the horizontal axis for drags and
+         * settles that do not map to the child's left edge, such as a panel that grows right
+         * from the left of its parent. Drags and settles move the child by the change of this
+         * position. The default implementation returns the left of the child.
+         *
+         * @param child Child view being dragged or settled
+         * @return The current horizontal position of the child
+         */
+        public int getViewHorizontalPosition(View child) {
+            return child.getLeft();
+        }
+
+        /**
+         * Return the current position of the child along the vertical axis for drags and
+         * settles that do not map to the child's top edge, such as a panel that grows down
+         * from the top of its parent. Drags and settles move the child by the change of this
+         * position. The default implementation returns the top of the child.
+         *
+         * @param child Child view being dragged or settled
+         * @return The current vertical position of the child
+         */
+        public int getViewVerticalPosition(View child) {
+            return child.getTop();
+        }
     }
 
     /**
-     * Interpolator defining the animation curve for mScroller
+     * Interpolator defining the animation curve for mScroller flings
      */
     private static final Interpolator sInterpolator = new Interpolator() {
         public float getInterpolation(float t) {
@@ -390,6 +466,7 @@ public class ViewDragHelperCustom {
         mMaxVelocity = vc.getScaledMaximumFlingVelocity();
         mMinVelocity = vc.getScaledMinimumFlingVelocity();
         mScroller = ScrollerCompat.create(context, sInterpolator);
+        mSpring.setOvershootClamping(true);
     }
 
     /**
@@ -413,6 +490,59 @@ public class ViewDragHelperCustom {
         return mMinVelocity;
     }
 
+    /**
+     * Set the estimator used for release and fling velocities. Pass null to use the platform
+     * {@link VelocityTracker}.
+     *
+     * @param estimator Velocity estimator to use, or null
+     */
+    public void setVelocityEstimator(VelocityEstimator estimator) {
+        cancel();
+        mVelocityEstimator = estimator;
+    }
+
+    /**
+     * @return The velocity estimator in use, or null if the platform {@link VelocityTracker} is used
+     */
+    public VelocityEstimator getVelocityEstimator() {
+        return mVelocityEstimator;
+    }
+
+    /**
+     * Set how drag input is applied to the captured view. When dragged once per frame, position
+     * clamping and {@link Callback#onViewPositionChanged(View, int, int, int, int)} with all the
+     * work behind it scale with the frame rate rather than the touch sample rate.
+     *
+     * @param dragMode {@link #DRAG_MODE_IMMEDIATE}, {@link #DRAG_MODE_COALESCED} or
+     *                 {@link #DRAG_MODE_RESAMPLED}
+     */
+    public void setDragMode(int dragMode) {
+        if (dragMode != DRAG_MODE_IMMEDIATE && dragMode != DRAG_MODE_COALESCED
+                && dragMode != DRAG_MODE_RESAMPLED) {
+            throw new IllegalArgumentException("Unknown drag mode: " + dragMode);
+        }
+        if (dragMode != mDragMode) {
+            // Catch up with input queued for the old mode.
+            flushResampling();
+            mDragMode = dragMode;
+        }
+    }
+
+    /**
+     * @return How drag input is applied, see {@link #setDragMode(int)}
+     */
+    public int getDragMode() {
+        return mDragMode;
+    }
+
+    /**
+     * @return true while queued drag input is applied on a frame, so position changes reported
+     *         now are already part of that frame
+     */
+    public boolean isApplyingDragFrame() {
+        return mApplyingDragFrame;
+    }
+
     /**
      * Retrieve the current drag state of this helper. This will return one of
      * {@link #STATE_IDLE}, {@link #STATE_DRAGGING} or {@link #STATE_SETTLING}.
@@ -465,6 +595,8 @@ public class ViewDragHelperCustom {
 
         mCapturedView = childView;
         mActivePointerId = activePointerId;
+        // Resampling starts over for the new pointer.
+        clearResampling();
         mCallback.onViewCaptured(childView, activePointerId);
         setDragState(STATE_DRAGGING);
     }
@@ -498,11 +630,15 @@ public class ViewDragHelperCustom {
     public void cancel() {
         mActivePointerId = INVALID_POINTER;
         clearMotionHistory();
+        clearResampling();
 
         if (mVelocityTracker != null) {
             mVelocityTracker.recycle();
             mVelocityTracker = null;
         }
+        if (mVelocityEstimator != null) {
+            mVelocityEstimator.clear();
+        }
     }
 
     /**
@@ -512,12 +648,13 @@ public class ViewDragHelperCustom {
     public void abort() {
         cancel();
         if (mDragState == STATE_SETTLING) {
-            final int oldX = mScroller.getCurrX();
-            final int oldY = mScroller.getCurrY();
-            mScroller.abortAnimation();
-            final int newX = mScroller.getCurrX();
-            final int newY = mScroller.getCurrY();
-            mCallback.onViewPositionChanged(mCapturedView, newX, newY, newX - oldX, newY - oldY);
+            if (mSpringSettling) {
+                mSpring.abortAnimation();
+                moveSettlingView(mSpring.getFinalX(), mSpring.getFinalY());
+            } else {
+                mScroller.abortAnimation();
+                moveSettlingView(mScroller.getFinalX(), mScroller.getFinalY());
+            }
         }
         setDragState(STATE_IDLE);
     }
@@ -540,7 +677,7 @@ public class ViewDragHelperCustom {
         mCapturedView = child;
         mActivePointerId = INVALID_POINTER;
 
-        return forceSettleCapturedViewAt(finalLeft, finalTop, 0, 0);
+        return forceSettleCapturedViewAt(finalLeft, finalTop, 0, 0, false);
     }
 
     /**
@@ -561,178 +698,146 @@ public class ViewDragHelperCustom {
         }
 
         return forceSettleCapturedViewAt(finalLeft, finalTop,
-                (int) VelocityTrackerCompat.getXVelocity(mVelocityTracker, mActivePointerId),
-                (int) VelocityTrackerCompat.getYVelocity(mVelocityTracker, mActivePointerId));
+                getActiveXVelocity(),
+                getActiveYVelocity(), false);
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // Custom Method
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////
-    public boolean settleCapturedViewAt(int finalLeft, int finalBottom, boolean isGravityTop) {
+    /**
+     * {@link #settleCapturedViewAt(int, int)} for positions reported by
+     * {@link Callback#getViewHorizontalPosition(View)} and {@link Callback#getViewVerticalPosition(View)}.
+     */
+    public boolean settleCapturedViewAtPosition(int finalX, int finalY) {
         if (!mReleaseInProgress) {
             throw new IllegalStateException("Cannot settleCapturedViewAt outside of a call to " +
                     "Callback#onViewReleased");
         }
 
-        return forceSettleCapturedViewAt(finalLeft, finalBottom,
-                (int) VelocityTrackerCompat.getXVelocity(mVelocityTracker, mActivePointerId),
-                (int) VelocityTrackerCompat.getYVelocity(mVelocityTracker, mActivePointerId), isGravityTop);
+        return forceSettleCapturedViewAt(finalX, finalY,
+                getActiveXVelocity(),
+                getActiveYVelocity(), true);
     }
 
-    public boolean smoothSlideViewTo(View child, int finalLeft, int finalTop, boolean isGravityTop) {
+    /**
+     * {@link #smoothSlideViewTo(View, int, int)} for positions reported by
+     * {@link Callback#getViewHorizontalPosition(View)} and {@link Callback#getViewVerticalPosition(View)}.
+     */
+    public boolean smoothSlideViewToPosition(View child, int finalX, int finalY) {
         mCapturedView = child;
         mActivePointerId = INVALID_POINTER;
 
-        return forceSettleCapturedViewAt(finalLeft, finalTop, 0, 0, isGravityTop);
+        return forceSettleCapturedViewAt(finalX, finalY, 0, 0, true);
     }
 
-    private boolean forceSettleCapturedViewAt(int finalX, int finalY, int xvel, int yvel, boolean isGravityTop) {
-        final int startX = mCapturedView.getLeft();
-        final int startY = isGravityTop? mCapturedView.getMeasuredHeight() : mCapturedView.getTop();
-        final int dx = finalX - startX;
-        final int dy = finalY - startY;
-
-        if (dx == 0 && dy == 0) {
-            // Nothing to do. Send callbacks, be done.
-            mScroller.abortAnimation();
-            setDragState(STATE_IDLE);
-            return false;
-        }
-//        Log.e("forceSettleCapturedViewAt", "startY : " + startY + ", dy : " + dy);
-        final int duration = computeSettleDuration(mCapturedView, dx, dy, xvel, yvel);
-        mScroller.startScroll(startX, startY, dx, dy, duration);
+    /**
+     * {@link #smoothSlideViewToPosition(View, int, int)} starting at the given velocity, e.g. to
+     * continue a settle that was interrupted.
+     *
+     * @param xvel Horizontal velocity in pixels per second
+     * @param yvel Vertical velocity in pixels per second
+     */
+    public boolean smoothSlideViewToPosition(View child, int finalX, int finalY, float xvel, float yvel) {
+        mCapturedView = child;
+        mActivePointerId = INVALID_POINTER;
 
-        setDragState(STATE_SETTLING);
-        return true;
+        return forceSettleCapturedViewAt(finalX, finalY, xvel, yvel, true);
     }
-    public boolean continueSettling(boolean deferCallbacks, boolean isGravityBottom) {
-        if (mDragState == STATE_SETTLING) {
-            boolean keepGoing = mScroller.computeScrollOffset();
-            final int x = mScroller.getCurrX();
-            final int y = mScroller.getCurrY();
-            final int dx = x - mCapturedView.getLeft();
-            final int dy = isGravityBottom? y - mCapturedView.getTop() : 0;
-
-//            Log.e("continueSettling", "y : " + y + ", dy : " + dy + ", keepGoing : " + keepGoing + ", final Y : " + mScroller.getFinalX());
-
-            if (dx != 0) {
-                mCapturedView.offsetLeftAndRight(dx);
-            }
-            if (dy != 0) {
-                mCapturedView.offsetTopAndBottom(dy);
-            }
 
-            if (dx != 0 || dy != 0 || !isGravityBottom) {
-                mCallback.onViewPositionChanged(mCapturedView, x, y, dx, dy);
-            }
-
-            if (keepGoing && x == mScroller.getFinalX() && y == mScroller.getFinalY()) {
-                // Close enough. The interpolator/scroller might think we're still moving
-                // but the user sure doesn't.
-                mScroller.abortAnimation();
-                keepGoing = mScroller.isFinished();
-            }
-
-            if (!keepGoing) {
-                if (deferCallbacks) {
-                    mParentView.post(mSetIdleRunnable);
-                } else {
-                    setDragState(STATE_IDLE);
-                }
-            }
-        }
+    /**
+     * @return Horizontal velocity of the settle in progress at its last frame, in pixels per
+     *         second, or 0 if the captured view is not settling on the spring.
+     */
+    public float getSettleVelocityX() {
+        return mDragState == STATE_SETTLING && mSpringSettling ? mSpring.getCurrVelocityX() : 0;
+    }
 
-        return mDragState == STATE_SETTLING;
+    /**
+     * @return Vertical velocity of the settle in progress at its last frame, in pixels per
+     *         second, or 0 if the captured view is not settling on the spring.
+     */
+    public float getSettleVelocityY() {
+        return mDragState == STATE_SETTLING && mSpringSettling ? mSpring.getCurrVelocityY() : 0;
     }
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
     /**
-     * Settle the captured view at the given (left, top) position.
+     * Settle the captured view at the given position on the spring. A settle already in
+     * progress is retargeted and keeps its current velocity, so it does not restart from rest.
      *
-     * @param finalLeft Target left position for the captured view
-     * @param finalTop Target top position for the captured view
-     * @param xvel Horizontal velocity
-     * @param yvel Vertical velocity
+     * @param finalX Target left, or horizontal position, for the captured view
+     * @param finalY Target top, or vertical position, for the captured view
+     * @param xvel Horizontal velocity in pixels per second
+     * @param yvel Vertical velocity in pixels per second
+     * @param byPosition true if the targets are callback positions rather than view edges
      * @return true if animation should continue through {@link #continueSettling(boolean)} calls
      */
-    private boolean forceSettleCapturedViewAt(int finalLeft, int finalTop, int xvel, int yvel) {
-        final int startLeft = mCapturedView.getLeft();
-        final int startTop = mCapturedView.getTop();
-        final int dx = finalLeft - startLeft;
-        final int dy = finalTop - startTop;
+    private boolean forceSettleCapturedViewAt(int finalX, int finalY, float xvel, float yvel,
+                                              boolean byPosition) {
+        final long now = AnimationUtils.currentAnimationTimeMillis();
+        final int startX;
+        final int startY;
+        if (mDragState == STATE_SETTLING && mSpringSettling && !mSpring.isFinished()
+                && mSettlingByPosition == byPosition) {
+            // Retarget from where the settle is now, the view catches up on the next frame.
+            mSpring.computeOffset(now);
+            startX = mSpring.getCurrX();
+            startY = mSpring.getCurrY();
+            xvel = mSpring.getCurrVelocityX();
+            yvel = mSpring.getCurrVelocityY();
+        } else {
+            mSettlingByPosition = byPosition;
+            startX = getSettlingViewX();
+            startY = getSettlingViewY();
+            xvel = clampMag(xvel, mMinVelocity, mMaxVelocity);
+            yvel = clampMag(yvel, mMinVelocity, mMaxVelocity);
+        }
 
-        if (dx == 0 && dy == 0) {
+        if (startX == finalX && startY == finalY) {
             // Nothing to do. Send callbacks, be done.
             mScroller.abortAnimation();
+            mSpring.abortAnimation();
+            moveSettlingView(finalX, finalY);
             setDragState(STATE_IDLE);
             return false;
         }
-
-        final int duration = computeSettleDuration(mCapturedView, dx, dy, xvel, yvel);
-        mScroller.startScroll(startLeft, startTop, dx, dy, duration);
+//        Log.e("forceSettleCapturedViewAt", "startY : " + startY + ", dy : " + dy);
+        mScroller.abortAnimation();
+        mSpring.start(startX, startY, finalX, finalY, xvel, yvel, now);
+        mSpringSettling = true;
 
         setDragState(STATE_SETTLING);
         return true;
     }
 
-    private int computeSettleDuration(View child, int dx, int dy, int xvel, int yvel) {
-        xvel = clampMag(xvel, (int) mMinVelocity, (int) mMaxVelocity);
-        yvel = clampMag(yvel, (int) mMinVelocity, (int) mMaxVelocity);
-        final int absDx = Math.abs(dx);
-        final int absDy = Math.abs(dy);
-        final int absXVel = Math.abs(xvel);
-        final int absYVel = Math.abs(yvel);
-        final int addedVel = absXVel + absYVel;
-        final int addedDistance = absDx + absDy;
-
-        final float xweight = xvel != 0 ? (float) absXVel / addedVel :
-                (float) absDx / addedDistance;
-        final float yweight = yvel != 0 ? (float) absYVel / addedVel :
-                (float) absDy / addedDistance;
-
-        int xduration = computeAxisDuration(dx, xvel, mCallback.getViewHorizontalDragRange(child));
-        int yduration = computeAxisDuration(dy, yvel, mCallback.getViewVerticalDragRange(child));
-
-        return (int) (xduration * xweight + yduration * yweight);
+    private int getSettlingViewX() {
+        return mSettlingByPosition
+                ? mCallback.getViewHorizontalPosition(mCapturedView) : mCapturedView.getLeft();
     }
 
-    private int computeAxisDuration(int delta, int velocity, int motionRange) {
-        if (delta == 0) {
-            return 0;
-        }
-
-        final int width = mParentView.getWidth();
-        final int halfWidth = width / 2;
-        final float distanceRatio = Math.min(1f, (float) Math.abs(delta) / width);
-        final float distance = halfWidth + halfWidth *
-                distanceInfluenceForSnapDuration(distanceRatio);
-
-        int duration;
-        velocity = Math.abs(velocity);
-        if (velocity > 0) {
-            duration = 4 * Math.round(1000 * Math.abs(distance / velocity));
-        } else {
-            final float range = (float) Math.abs(delta) / motionRange;
-            duration = (int) ((range + 1) * BASE_SETTLE_DURATION);
-        }
-        return Math.min(duration, MAX_SETTLE_DURATION);
+    private int getSettlingViewY() {
+        return mSettlingByPosition
+                ? mCallback.getViewVerticalPosition(mCapturedView) : mCapturedView.getTop();
     }
 
     /**
-     * Clamp the magnitude of value for absMin and absMax.
-     * If the value is below the minimum, it will be clamped to zero.
-     * If the value is above the maximum, it will be clamped to the maximum.
-     *
-     * @param value Value to clamp
-     * @param absMin Absolute value of the minimum significant value to return
-     * @param absMax Absolute value of the maximum value to return
-     * @return The clamped value with the same sign as <code>value</code>
+     * Move the settling view to the given position and report it if it changed.
      */
-    private int clampMag(int value, int absMin, int absMax) {
-        final int absValue = Math.abs(value);
-        if (absValue < absMin) return 0;
-        if (absValue > absMax) return value > 0 ? absMax : -absMax;
-        return value;
+    private void moveSettlingView(int x, int y) {
+        final int dx = x - getSettlingViewX();
+        final int dy = y - getSettlingViewY();
+
+        if (dx != 0) {
+            mCapturedView.offsetLeftAndRight(dx);
+        }
+        if (dy != 0) {
+            mCapturedView.offsetTopAndBottom(dy);
+        }
+
+        if (dx != 0 || dy != 0) {
+            mCallback.onViewPositionChanged(mCapturedView, x, y, dx, dy);
+        }
     }
 
     /**
@@ -752,12 +857,6 @@ public class ViewDragHelperCustom {
         return value;
     }
 
-    private float distanceInfluenceForSnapDuration(float f) {
-        f -= 0.5f; // center the values about 0.
-        f *= 0.3f * Math.PI / 2.0f;
-        return (float) Math.sin(f);
-    }
-
     /**
      * Settle the captured view based on standard free-moving fling behavior.
      * The caller should invoke {@link #continueSettling(boolean)} on each subsequent frame
@@ -774,9 +873,12 @@ public class ViewDragHelperCustom {
                     "Callback#onViewReleased");
         }
 
+        mSpring.abortAnimation();
+        mSpringSettling = false;
+        mSettlingByPosition = false;
         mScroller.fling(mCapturedView.getLeft(), mCapturedView.getTop(),
-                (int) VelocityTrackerCompat.getXVelocity(mVelocityTracker, mActivePointerId),
-                (int) VelocityTrackerCompat.getYVelocity(mVelocityTracker, mActivePointerId),
+                (int) getActiveXVelocity(),
+                (int) getActiveYVelocity(),
                 minLeft, maxLeft, minTop, maxTop);
 
         setDragState(STATE_SETTLING);
@@ -785,7 +887,8 @@ public class ViewDragHelperCustom {
     /**
      * Move the captured settling view by the appropriate amount for the current time.
      * If <code>continueSettling</code> returns true, the caller should call it again
-     * on the next frame to continue.
+     * on the next frame to continue. Settles are sampled at the animation time of the frame,
+     * so late frames do not slow them down.
      *
      * @param deferCallbacks true if state callbacks should be deferred via posted message.
      *                       Set this to true if you are calling this method from
@@ -794,30 +897,38 @@ public class ViewDragHelperCustom {
      * @return true if settle is still in progress
      */
     public boolean continueSettling(boolean deferCallbacks) {
-        if (mDragState == STATE_SETTLING) {
-            boolean keepGoing = mScroller.computeScrollOffset();
-            final int x = mScroller.getCurrX();
-            final int y = mScroller.getCurrY();
-            final int dx = x - mCapturedView.getLeft();
-            final int dy = y - mCapturedView.getTop();
-
-            if (dx != 0) {
-                mCapturedView.offsetLeftAndRight(dx);
-            }
-            if (dy != 0) {
-                mCapturedView.offsetTopAndBottom(dy);
-            }
+        return continueSettling(deferCallbacks, AnimationUtils.currentAnimationTimeMillis());
+    }
 
-            if (dx != 0 || dy != 0) {
-                mCallback.onViewPositionChanged(mCapturedView, x, y, dx, dy);
+    /**
+     * {@link #continueSettling(boolean)} for the given animation time, such as the time of the
+     * frame being prepared. Called from a frame callback the settle ends on the frame it reaches
+     * its target, with deferCallbacks false.
+     *
+     * @param animationTime Time in the {@link AnimationUtils#currentAnimationTimeMillis()} base
+     */
+    public boolean continueSettling(boolean deferCallbacks, long animationTime) {
+        if (mDragState == STATE_SETTLING) {
+            boolean keepGoing;
+            if (mSpringSettling) {
+                mSpring.computeOffset(animationTime);
+                moveSettlingView(mSpring.getCurrX(), mSpring.getCurrY());
+                keepGoing = !mSpring.isFinished();
+            } else {
+                keepGoing = mScroller.computeScrollOffset();
+                final int x = mScroller.getCurrX();
+                final int y = mScroller.getCurrY();
+                moveSettlingView(x, y);
+
+                if (keepGoing && x == mScroller.getFinalX() && y == mScroller.getFinalY()) {
+                    // Close enough. The interpolator/scroller might think we're still moving
+                    // but the user sure doesn't.
+                    mScroller.abortAnimation();
+                    keepGoing = mScroller.isFinished();
+                }
             }
 
-            if (keepGoing && x == mScroller.getFinalX() && y == mScroller.getFinalY()) {
-                // Close enough. The interpolator/scroller might think we're still moving
-                // but the user sure doesn't.
-                mScroller.abortAnimation();
-                keepGoing = mScroller.isFinished();
-            }
+//            Log.e("continueSettling", "keepGoing : " + keepGoing);
 
             if (!keepGoing) {
                 if (deferCallbacks) {
@@ -849,68 +960,23 @@ public class ViewDragHelperCustom {
     }
 
     private void clearMotionHistory() {
-        if (mInitialMotionX == null) {
-            return;
-        }
-        Arrays.fill(mInitialMotionX, 0);
-        Arrays.fill(mInitialMotionY, 0);
-        Arrays.fill(mLastMotionX, 0);
-        Arrays.fill(mLastMotionY, 0);
-        Arrays.fill(mInitialEdgesTouched, 0);
-        Arrays.fill(mEdgeDragsInProgress, 0);
-        Arrays.fill(mEdgeDragsLocked, 0);
+        mPointers.clear();
         mPointersDown = 0;
     }
 
     private void clearMotionHistory(int pointerId) {
-        if (mInitialMotionX == null) {
-            return;
-        }
-        mInitialMotionX[pointerId] = 0;
-        mInitialMotionY[pointerId] = 0;
-        mLastMotionX[pointerId] = 0;
-        mLastMotionY[pointerId] = 0;
-        mInitialEdgesTouched[pointerId] = 0;
-        mEdgeDragsInProgress[pointerId] = 0;
-        mEdgeDragsLocked[pointerId] = 0;
+        mPointers.remove(pointerId);
         mPointersDown &= ~(1 << pointerId);
     }
 
-    private void ensureMotionHistorySizeForId(int pointerId) {
-        if (mInitialMotionX == null || mInitialMotionX.length <= pointerId) {
-            float[] imx = new float[pointerId + 1];
-            float[] imy = new float[pointerId + 1];
-            float[] lmx = new float[pointerId + 1];
-            float[] lmy = new float[pointerId + 1];
-            int[] iit = new int[pointerId + 1];
-            int[] edip = new int[pointerId + 1];
-            int[] edl = new int[pointerId + 1];
-
-            if (mInitialMotionX != null) {
-                System.arraycopy(mInitialMotionX, 0, imx, 0, mInitialMotionX.length);
-                System.arraycopy(mInitialMotionY, 0, imy, 0, mInitialMotionY.length);
-                System.arraycopy(mLastMotionX, 0, lmx, 0, mLastMotionX.length);
-                System.arraycopy(mLastMotionY, 0, lmy, 0, mLastMotionY.length);
-                System.arraycopy(mInitialEdgesTouched, 0, iit, 0, mInitialEdgesTouched.length);
-                System.arraycopy(mEdgeDragsInProgress, 0, edip, 0, mEdgeDragsInProgress.length);
-                System.arraycopy(mEdgeDragsLocked, 0, edl, 0, mEdgeDragsLocked.length);
-            }
-
-            mInitialMotionX = imx;
-            mInitialMotionY = imy;
-            mLastMotionX = lmx;
-            mLastMotionY = lmy;
-            mInitialEdgesTouched = iit;
-            mEdgeDragsInProgress = edip;
-            mEdgeDragsLocked = edl;
-        }
-    }
-
     private void saveInitialMotion(float x, float y, int pointerId) {
-        ensureMotionHistorySizeForId(pointerId);
-        mInitialMotionX[pointerId] = mLastMotionX[pointerId] = x;
-        mInitialMotionY[pointerId] = mLastMotionY[pointerId] = y;
-        mInitialEdgesTouched[pointerId] = getEdgesTouched((int) x, (int) y);
+        final int slot = mPointers.obtain(pointerId);
+        if (slot < 0) {
+            return;
+        }
+        mPointers.initialX[slot] = mPointers.lastX[slot] = x;
+        mPointers.initialY[slot] = mPointers.lastY[slot] = y;
+        mPointers.initialEdgesTouched[slot] = getEdgesTouched((int) x, (int) y);
         mPointersDown |= 1 << pointerId;
     }
 
@@ -920,8 +986,11 @@ public class ViewDragHelperCustom {
             final int pointerId = MotionEventCompat.getPointerId(ev, i);
             final float x = MotionEventCompat.getX(ev, i);
             final float y = MotionEventCompat.getY(ev, i);
-            mLastMotionX[pointerId] = x;
-            mLastMotionY[pointerId] = y;
+            final int slot = mPointers.slotOf(pointerId);
+            if (slot >= 0) {
+                mPointers.lastX[slot] = x;
+                mPointers.lastY[slot] = y;
+            }
         }
     }
 
@@ -974,42 +1043,6 @@ public class ViewDragHelperCustom {
         return false;
     }
 
-    /**
-     * Tests scrollability within child views of v given a delta of dx.
-     *
-     * @param v View to test for horizontal scrollability
-     * @param checkV Whether the view v passed should itself be checked for scrollability (true),
-     *               or just its children (false).
-     * @param dx Delta scrolled in pixels along the X axis
-     * @param dy Delta scrolled in pixels along the Y axis
-     * @param x X coordinate of the active touch point
-     * @param y Y coordinate of the active touch point
-     * @return true if child views of v can be scrolled by delta of dx.
-     */
-    protected boolean canScroll(View v, boolean checkV, int dx, int dy, int x, int y) {
-        if (v instanceof ViewGroup) {
-            final ViewGroup group = (ViewGroup) v;
-            final int scrollX = v.getScrollX();
-            final int scrollY = v.getScrollY();
-            final int count = group.getChildCount();
-            // Count backwards - let topmost views consume scroll distance first.
-            for (int i = count - 1; i >= 0; i--) {
-                // TODO: Add versioned support here for transformed views.
-                // This will not work for transformed views in Honeycomb+
-                final View child = group.getChildAt(i);
-                if (x + scrollX >= child.getLeft() && x + scrollX < child.getRight() &&
-                        y + scrollY >= child.getTop() && y + scrollY < child.getBottom() &&
-                        canScroll(child, true, dx, dy, x + scrollX - child.getLeft(),
-                                y + scrollY - child.getTop())) {
-                    return true;
-                }
-            }
-        }
-
-        return checkV && (ViewCompat.canScrollHorizontally(v, -dx) ||
-                ViewCompat.canScrollVertically(v, -dy));
-    }
-
     /**
      * Check if this event as provided to the parent view's onInterceptTouchEvent should
      * cause the parent to intercept the touch event stream.
@@ -1027,10 +1060,7 @@ public class ViewDragHelperCustom {
             cancel();
         }
 
-        if (mVelocityTracker == null) {
-            mVelocityTracker = VelocityTracker.obtain();
-        }
-        mVelocityTracker.addMovement(ev);
+        trackMovement(ev, action, actionIndex);
 
         switch (action) {
             case MotionEvent.ACTION_DOWN: {
@@ -1046,7 +1076,7 @@ public class ViewDragHelperCustom {
                     tryCaptureViewForDrag(toCapture, pointerId);
                 }
 
-                final int edgesTouched = mInitialEdgesTouched[pointerId];
+                final int edgesTouched = mPointers.getInitialEdgesTouched(pointerId);
                 if ((edgesTouched & mTrackingEdges) != 0) {
                     mCallback.onEdgeTouched(edgesTouched & mTrackingEdges, pointerId);
                 }
@@ -1062,7 +1092,7 @@ public class ViewDragHelperCustom {
 
                 // A ViewDragHelperCustom can only manipulate one view at a time.
                 if (mDragState == STATE_IDLE) {
-                    final int edgesTouched = mInitialEdgesTouched[pointerId];
+                    final int edgesTouched = mPointers.getInitialEdgesTouched(pointerId);
                     if ((edgesTouched & mTrackingEdges) != 0) {
                         mCallback.onEdgeTouched(edgesTouched & mTrackingEdges, pointerId);
                     }
@@ -1083,8 +1113,8 @@ public class ViewDragHelperCustom {
                     final int pointerId = MotionEventCompat.getPointerId(ev, i);
                     final float x = MotionEventCompat.getX(ev, i);
                     final float y = MotionEventCompat.getY(ev, i);
-                    final float dx = x - mInitialMotionX[pointerId];
-                    final float dy = y - mInitialMotionY[pointerId];
+                    final float dx = x - mPointers.getInitialX(pointerId);
+                    final float dy = y - mPointers.getInitialY(pointerId);
 
                     reportNewEdgeDrags(dx, dy, pointerId);
                     if (mDragState == STATE_DRAGGING) {
@@ -1134,10 +1164,7 @@ public class ViewDragHelperCustom {
             cancel();
         }
 
-        if (mVelocityTracker == null) {
-            mVelocityTracker = VelocityTracker.obtain();
-        }
-        mVelocityTracker.addMovement(ev);
+        trackMovement(ev, action, actionIndex);
 
         switch (action) {
             case MotionEvent.ACTION_DOWN: {
@@ -1153,7 +1180,7 @@ public class ViewDragHelperCustom {
                 // Start immediately if possible.
                 tryCaptureViewForDrag(toCapture, pointerId);
 
-                final int edgesTouched = mInitialEdgesTouched[pointerId];
+                final int edgesTouched = mPointers.getInitialEdgesTouched(pointerId);
                 if ((edgesTouched & mTrackingEdges) != 0) {
                     mCallback.onEdgeTouched(edgesTouched & mTrackingEdges, pointerId);
                 }
@@ -1174,7 +1201,7 @@ public class ViewDragHelperCustom {
                     final View toCapture = findTopChildUnder((int) x, (int) y);
                     tryCaptureViewForDrag(toCapture, pointerId);
 
-                    final int edgesTouched = mInitialEdgesTouched[pointerId];
+                    final int edgesTouched = mPointers.getInitialEdgesTouched(pointerId);
                     if ((edgesTouched & mTrackingEdges) != 0) {
                         mCallback.onEdgeTouched(edgesTouched & mTrackingEdges, pointerId);
                     }
@@ -1189,14 +1216,17 @@ public class ViewDragHelperCustom {
             }
 
             case MotionEvent.ACTION_MOVE: {
-                if (mDragState == STATE_DRAGGING) {
+                if (mDragState == STATE_DRAGGING && mDragMode != DRAG_MODE_IMMEDIATE) {
+                    addResampleSamples(ev);
+                    saveLastMotion(ev);
+                } else if (mDragState == STATE_DRAGGING) {
                     final int index = MotionEventCompat.findPointerIndex(ev, mActivePointerId);
                     final float x = MotionEventCompat.getX(ev, index);
                     final float y = MotionEventCompat.getY(ev, index);
-                    final int idx = (int) (x - mLastMotionX[mActivePointerId]);
-                    final int idy = (int) (y - mLastMotionY[mActivePointerId]);
+                    final int idx = (int) (x - mPointers.getLastX(mActivePointerId));
+                    final int idy = (int) (y - mPointers.getLastY(mActivePointerId));
 
-                    dragTo(mCapturedView.getLeft() + idx, mCapturedView.getTop() + idy, idx, idy);
+                    dragBy(idx, idy);
 
                     saveLastMotion(ev);
                 } else {
@@ -1206,8 +1236,8 @@ public class ViewDragHelperCustom {
                         final int pointerId = MotionEventCompat.getPointerId(ev, i);
                         final float x = MotionEventCompat.getX(ev, i);
                         final float y = MotionEventCompat.getY(ev, i);
-                        final float dx = x - mInitialMotionX[pointerId];
-                        final float dy = y - mInitialMotionY[pointerId];
+                        final float dx = x - mPointers.getInitialX(pointerId);
+                        final float dy = y - mPointers.getInitialY(pointerId);
 
                         reportNewEdgeDrags(dx, dy, pointerId);
                         if (mDragState == STATE_DRAGGING) {
@@ -1229,6 +1259,9 @@ public class ViewDragHelperCustom {
             case MotionEventCompat.ACTION_POINTER_UP: {
                 final int pointerId = MotionEventCompat.getPointerId(ev, actionIndex);
                 if (mDragState == STATE_DRAGGING && pointerId == mActivePointerId) {
+                    // Catch up with the pointer going away before anything else takes over.
+                    flushResampling();
+
                     // Try to find another pointer that's still holding on to the captured view.
                     int newActivePointer = INVALID_POINTER;
                     final int pointerCount = MotionEventCompat.getPointerCount(ev);
@@ -1259,6 +1292,7 @@ public class ViewDragHelperCustom {
 
             case MotionEvent.ACTION_UP: {
                 if (mDragState == STATE_DRAGGING) {
+                    flushResampling();
                     releaseViewForPointerUp();
                 }
                 cancel();
@@ -1275,6 +1309,141 @@ public class ViewDragHelperCustom {
         }
     }
 
+    /**
+     * Queue the samples of the active pointer in a MOVE, oldest first, and ask for a frame.
+     * Only the newest sample is needed when coalescing without resampling.
+     */
+    private void addResampleSamples(MotionEvent ev) {
+        final int index = MotionEventCompat.findPointerIndex(ev, mActivePointerId);
+        if (index < 0) {
+            return;
+        }
+        if (mResampleCount == 0) {
+            // First samples since the view was captured or the pointer changed.
+            mAppliedX = mPointers.getLastX(mActivePointerId);
+            mAppliedY = mPointers.getLastY(mActivePointerId);
+        }
+        if (mDragMode == DRAG_MODE_RESAMPLED) {
+            final int historySize = ev.getHistorySize();
+            for (int h = 0; h < historySize; h++) {
+                addResampleSample(ev.getHistoricalEventTime(h), ev.getHistoricalX(index, h),
+                        ev.getHistoricalY(index, h));
+            }
+        }
+        addResampleSample(ev.getEventTime(), MotionEventCompat.getX(ev, index),
+                MotionEventCompat.getY(ev, index));
+        postResampleFrame();
+    }
+
+    private void addResampleSample(long time, float x, float y) {
+        mResampleHead = (mResampleHead + 1) % RESAMPLE_HISTORY_SIZE;
+        mResampleTime[mResampleHead] = time;
+        mResampleX[mResampleHead] = x;
+        mResampleY[mResampleHead] = y;
+        if (mResampleCount < RESAMPLE_HISTORY_SIZE) {
+            mResampleCount++;
+        }
+    }
+
+    private void postResampleFrame() {
+        if (mResampleFramePosted) {
+            return;
+        }
+        if (mResampleCallback == null) {
+            mResampleCallback = new ChoreographerCompat.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    mResampleFramePosted = false;
+                    if (mDragState != STATE_DRAGGING || mResampleCount == 0) {
+                        return;
+                    }
+                    mApplyingDragFrame = true;
+                    if (mDragMode == DRAG_MODE_RESAMPLED) {
+                        applyResampledDrag(frameTimeNanos / 1000000L - RESAMPLE_LATENCY);
+                    } else {
+                        applyDragPosition(mResampleX[mResampleHead], mResampleY[mResampleHead]);
+                    }
+                    mApplyingDragFrame = false;
+                }
+            };
+        }
+        ChoreographerCompat.getInstance().postFrameCallback(mResampleCallback);
+        mResampleFramePosted = true;
+    }
+
+    /**
+     * Drag the captured view to where the active pointer is estimated to be at the given time.
+     * Between two samples the position is interpolated; past the newest one it is predicted
+     * from the last two, for a short while only.
+     */
+    private void applyResampledDrag(long sampleTime) {
+        final int newest = mResampleHead;
+        float x = mResampleX[newest];
+        float y = mResampleY[newest];
+
+        if (mResampleCount >= 2) {
+            if (sampleTime >= mResampleTime[newest]) {
+                final int previous = (newest + RESAMPLE_HISTORY_SIZE - 1) % RESAMPLE_HISTORY_SIZE;
+                final long delta = mResampleTime[newest] - mResampleTime[previous];
+                if (delta >= RESAMPLE_MIN_DELTA && delta <= RESAMPLE_MAX_DELTA
+                        && sampleTime - mResampleTime[newest] <= RESAMPLE_MAX_DELTA) {
+                    final long predict = Math.min(sampleTime - mResampleTime[newest],
+                            RESAMPLE_MAX_PREDICTION);
+                    final float alpha = (float) predict / delta;
+                    x += (mResampleX[newest] - mResampleX[previous]) * alpha;
+                    y += (mResampleY[newest] - mResampleY[previous]) * alpha;
+                    // Come back on the next frame to land on the real sample if input stops.
+                    postResampleFrame();
+                }
+            } else {
+                // Find the samples around the sample time.
+                int after = newest;
+                for (int i = 1; i < mResampleCount; i++) {
+                    final int before = (after + RESAMPLE_HISTORY_SIZE - 1) % RESAMPLE_HISTORY_SIZE;
+                    if (mResampleTime[before] <= sampleTime) {
+                        final long delta = mResampleTime[after] - mResampleTime[before];
+                        final float alpha = delta == 0 ? 1.f
+                                : (float) (sampleTime - mResampleTime[before]) / delta;
+                        x = mResampleX[before] + (mResampleX[after] - mResampleX[before]) * alpha;
+                        y = mResampleY[before] + (mResampleY[after] - mResampleY[before]) * alpha;
+                        break;
+                    }
+                    after = before;
+                    x = mResampleX[after];
+                    y = mResampleY[after];
+                }
+            }
+        }
+        applyDragPosition(x, y);
+    }
+
+    private void applyDragPosition(float x, float y) {
+        final int idx = (int) (x - mAppliedX);
+        final int idy = (int) (y - mAppliedY);
+        // Keep the fractions for the next frame.
+        mAppliedX += idx;
+        mAppliedY += idy;
+        dragBy(idx, idy);
+    }
+
+    /**
+     * Apply the newest sample right away, so the view is released where the pointer is.
+     */
+    private void flushResampling() {
+        if (mResampleCount > 0 && mDragState == STATE_DRAGGING && mCapturedView != null) {
+            applyDragPosition(mResampleX[mResampleHead], mResampleY[mResampleHead]);
+        }
+        clearResampling();
+    }
+
+    private void clearResampling() {
+        if (mResampleFramePosted) {
+            ChoreographerCompat.getInstance().removeFrameCallback(mResampleCallback);
+            mResampleFramePosted = false;
+        }
+        mResampleCount = 0;
+    }
+
     private void reportNewEdgeDrags(float dx, float dy, int pointerId) {
         int dragsStarted = 0;
         if (checkNewEdgeDrag(dx, dy, pointerId, EDGE_LEFT)) {
@@ -1291,7 +1460,7 @@ public class ViewDragHelperCustom {
         }
 
         if (dragsStarted != 0) {
-            mEdgeDragsInProgress[pointerId] |= dragsStarted;
+            mPointers.addEdgeDragsInProgress(pointerId, dragsStarted);
             mCallback.onEdgeDragStarted(dragsStarted, pointerId);
         }
     }
@@ -1300,17 +1469,17 @@ public class ViewDragHelperCustom {
         final float absDelta = Math.abs(delta);
         final float absODelta = Math.abs(odelta);
 
-        if ((mInitialEdgesTouched[pointerId] & edge) != edge  || (mTrackingEdges & edge) == 0 ||
-                (mEdgeDragsLocked[pointerId] & edge) == edge ||
-                (mEdgeDragsInProgress[pointerId] & edge) == edge ||
+        if ((mPointers.getInitialEdgesTouched(pointerId) & edge) != edge  || (mTrackingEdges & edge) == 0 ||
+                (mPointers.getEdgeDragsLocked(pointerId) & edge) == edge ||
+                (mPointers.getEdgeDragsInProgress(pointerId) & edge) == edge ||
                 (absDelta <= mTouchSlop && absODelta <= mTouchSlop)) {
             return false;
         }
         if (absDelta < absODelta * 0.5f && mCallback.onEdgeLock(edge)) {
-            mEdgeDragsLocked[pointerId] |= edge;
+            mPointers.addEdgeDragsLocked(pointerId, edge);
             return false;
         }
-        return (mEdgeDragsInProgress[pointerId] & edge) == 0 && absDelta > mTouchSlop;
+        return (mPointers.getEdgeDragsInProgress(pointerId) & edge) == 0 && absDelta > mTouchSlop;
     }
 
     /**
@@ -1355,9 +1524,9 @@ public class ViewDragHelperCustom {
      * @return true if the slop threshold has been crossed, false otherwise
      */
     public boolean checkTouchSlop(int directions) {
-        final int count = mInitialMotionX.length;
+        final int count = mPointers.count;
         for (int i = 0; i < count; i++) {
-            if (checkTouchSlop(directions, i)) {
+            if (checkTouchSlop(directions, mPointers.ids[i])) {
                 return true;
             }
         }
@@ -1387,8 +1556,8 @@ public class ViewDragHelperCustom {
         final boolean checkHorizontal = (directions & DIRECTION_HORIZONTAL) == DIRECTION_HORIZONTAL;
         final boolean checkVertical = (directions & DIRECTION_VERTICAL) == DIRECTION_VERTICAL;
 
-        final float dx = mLastMotionX[pointerId] - mInitialMotionX[pointerId];
-        final float dy = mLastMotionY[pointerId] - mInitialMotionY[pointerId];
+        final float dx = mPointers.getLastX(pointerId) - mPointers.getInitialX(pointerId);
+        final float dy = mPointers.getLastY(pointerId) - mPointers.getInitialY(pointerId);
 
         if (checkHorizontal && checkVertical) {
             return dx * dx + dy * dy > mTouchSlop * mTouchSlop;
@@ -1410,9 +1579,9 @@ public class ViewDragHelperCustom {
      * @return true if any of the edges specified were initially touched in the current gesture
      */
     public boolean isEdgeTouched(int edges) {
-        final int count = mInitialEdgesTouched.length;
+        final int count = mPointers.count;
         for (int i = 0; i < count; i++) {
-            if (isEdgeTouched(edges, i)) {
+            if (isEdgeTouched(edges, mPointers.ids[i])) {
                 return true;
             }
         }
@@ -1430,37 +1599,85 @@ public class ViewDragHelperCustom {
      * @return true if any of the edges specified were initially touched in the current gesture
      */
     public boolean isEdgeTouched(int edges, int pointerId) {
-        return isPointerDown(pointerId) && (mInitialEdgesTouched[pointerId] & edges) != 0;
+        return isPointerDown(pointerId) && (mPointers.getInitialEdgesTouched(pointerId) & edges) != 0;
     }
 
     private void releaseViewForPointerUp() {
-        mVelocityTracker.computeCurrentVelocity(1000, mMaxVelocity);
-        final float xvel = clampMag(
-                VelocityTrackerCompat.getXVelocity(mVelocityTracker, mActivePointerId),
-                mMinVelocity, mMaxVelocity);
-        final float yvel = clampMag(
-                VelocityTrackerCompat.getYVelocity(mVelocityTracker, mActivePointerId),
-                mMinVelocity, mMaxVelocity);
+        if (mVelocityEstimator != null) {
+            mVelocityEstimator.computeCurrentVelocity(1000, mMaxVelocity);
+        } else {
+            mVelocityTracker.computeCurrentVelocity(1000, mMaxVelocity);
+        }
+        final float xvel = clampMag(getActiveXVelocity(), mMinVelocity, mMaxVelocity);
+        final float yvel = clampMag(getActiveYVelocity(), mMinVelocity, mMaxVelocity);
         dispatchViewReleased(xvel, yvel);
     }
 
-    private void dragTo(int left, int top, int dx, int dy) {
-        int clampedX = left;
-        int clampedY = top;
-        final int oldLeft = mCapturedView.getLeft();
-        final int oldTop = mCapturedView.getTop();
+    /**
+     * Feed a MotionEvent to the velocity estimator if one is set, including its historical
+     * samples, or to the platform VelocityTracker otherwise.
+     */
+    private void trackMovement(MotionEvent ev, int action, int actionIndex) {
+        if (mVelocityEstimator == null) {
+            if (mVelocityTracker == null) {
+                mVelocityTracker = VelocityTracker.obtain();
+            }
+            mVelocityTracker.addMovement(ev);
+            return;
+        }
+
+        if (action == MotionEvent.ACTION_DOWN || action == MotionEventCompat.ACTION_POINTER_DOWN) {
+            mVelocityEstimator.clear(MotionEventCompat.getPointerId(ev, actionIndex));
+        }
+
+        final int pointerCount = MotionEventCompat.getPointerCount(ev);
+        final int historySize = ev.getHistorySize();
+        for (int i = 0; i < pointerCount; i++) {
+            final int pointerId = MotionEventCompat.getPointerId(ev, i);
+            for (int h = 0; h < historySize; h++) {
+                mVelocityEstimator.addMovement(pointerId, ev.getHistoricalEventTime(h),
+                        ev.getHistoricalX(i, h), ev.getHistoricalY(i, h));
+            }
+            mVelocityEstimator.addMovement(pointerId, ev.getEventTime(),
+                    MotionEventCompat.getX(ev, i), MotionEventCompat.getY(ev, i));
+        }
+    }
+
+    private float getActiveXVelocity() {
+        if (mVelocityEstimator != null) {
+            return mVelocityEstimator.getXVelocity(mActivePointerId);
+        }
+        return VelocityTrackerCompat.getXVelocity(mVelocityTracker, mActivePointerId);
+    }
+
+    private float getActiveYVelocity() {
+        if (mVelocityEstimator != null) {
+            return mVelocityEstimator.getYVelocity(mActivePointerId);
+        }
+        return VelocityTrackerCompat.getYVelocity(mVelocityTracker, mActivePointerId);
+    }
+
+    /**
+     * Drag the captured view by the given distance from its current positions, see
+     * {@link Callback#getViewHorizontalPosition(View)} and {@link Callback#getViewVerticalPosition(View)}.
+     */
+    private void dragBy(int dx, int dy) {
+        final int oldX = mCallback.getViewHorizontalPosition(mCapturedView);
+        final int oldY = mCallback.getViewVerticalPosition(mCapturedView);
+        int clampedX = oldX;
+        int clampedY = oldY;
         if (dx != 0) {
-            clampedX = mCallback.clampViewPositionHorizontal(mCapturedView, left, dx);
-            mCapturedView.offsetLeftAndRight(clampedX - oldLeft);
+            clampedX = mCallback.clampViewPositionHorizontal(mCapturedView, oldX + dx, dx);
+            mCapturedView.offsetLeftAndRight(clampedX - oldX);
         }
         if (dy != 0) {
-            clampedY = mCallback.clampViewPositionVertical(mCapturedView, top, dy);
-            mCapturedView.offsetTopAndBottom(clampedY - oldTop);
+            clampedY = mCallback.clampViewPositionVertical(mCapturedView, oldY + dy, dy);
+            mCapturedView.offsetTopAndBottom(clampedY - oldY);
         }
 
         if (dx != 0 || dy != 0) {
-            final int clampedDx = clampedX - oldLeft;
-            final int clampedDy = clampedY - oldTop;
+            final int clampedDx = clampedX - oldX;
+            final int clampedDy = clampedY - oldY;
             mCallback.onViewPositionChanged(mCapturedView, clampedX, clampedY,
                     clampedDx, clampedDy);
         }
@@ -1528,4 +1745,131 @@ public class ViewDragHelperCustom {
 
         return result;
     }
+
+    /**
+     * Per pointer tracking state as a struct of arrays. Pointers get a dense slot when they go
+     * down and give it back when they go up, so the table is allocated once and reused by every
+     * gesture instead of being grown and refilled for high pointer ids.
+     */
+    private static final class PointerTable {
+        // MotionEvent pointer ids are in [0, 31].
+        private static final int MAX_POINTERS = 32;
+
+        final float[] initialX = new float[MAX_POINTERS];
+        final float[] initialY = new float[MAX_POINTERS];
+        final float[] lastX = new float[MAX_POINTERS];
+        final float[] lastY = new float[MAX_POINTERS];
+        final int[] initialEdgesTouched = new int[MAX_POINTERS];
+        final int[] edgeDragsInProgress = new int[MAX_POINTERS];
+        final int[] edgeDragsLocked = new int[MAX_POINTERS];
+
+        // Pointer id of each slot, and slot of each pointer id or -1.
+        final int[] ids = new int[MAX_POINTERS];
+        private final int[] slots = new int[MAX_POINTERS];
+        int count;
+
+        PointerTable() {
+            Arrays.fill(slots, -1);
+        }
+
+        int slotOf(int pointerId) {
+            return pointerId >= 0 && pointerId < MAX_POINTERS ? slots[pointerId] : -1;
+        }
+
+        /**
+         * @return The slot of the pointer, a cleared one if the pointer was not tracked yet, or
+         *         -1 for an id out of range.
+         */
+        int obtain(int pointerId) {
+            if (pointerId < 0 || pointerId >= MAX_POINTERS) {
+                return -1;
+            }
+            int slot = slots[pointerId];
+            if (slot < 0) {
+                slot = count++;
+                slots[pointerId] = slot;
+                ids[slot] = pointerId;
+                edgeDragsInProgress[slot] = 0;
+                edgeDragsLocked[slot] = 0;
+            }
+            return slot;
+        }
+
+        void remove(int pointerId) {
+            final int slot = slotOf(pointerId);
+            if (slot < 0) {
+                return;
+            }
+            // Move the last slot into the hole to keep slots dense.
+            final int last = --count;
+            if (slot != last) {
+                initialX[slot] = initialX[last];
+                initialY[slot] = initialY[last];
+                lastX[slot] = lastX[last];
+                lastY[slot] = lastY[last];
+                initialEdgesTouched[slot] = initialEdgesTouched[last];
+                edgeDragsInProgress[slot] = edgeDragsInProgress[last];
+                edgeDragsLocked[slot] = edgeDragsLocked[last];
+                ids[slot] = ids[last];
+                slots[ids[slot]] = slot;
+            }
+            slots[pointerId] = -1;
+        }
+
+        void clear() {
+            for (int i = 0; i < count; i++) {
+                slots[ids[i]] = -1;
+            }
+            count = 0;
+        }
+
+        float getInitialX(int pointerId) {
+            final int slot = slotOf(pointerId);
+            return slot >= 0 ? initialX[slot] : 0;
+        }
+
+        float getInitialY(int pointerId) {
+            final int slot = slotOf(pointerId);
+            return slot >= 0 ? initialY[slot] : 0;
+        }
+
+        float getLastX(int pointerId) {
+            final int slot = slotOf(pointerId);
+            return slot >= 0 ? lastX[slot] : 0;
+        }
+
+        float getLastY(int pointerId) {
+            final int slot = slotOf(pointerId);
+            return slot >= 0 ? lastY[slot] : 0;
+        }
+
+        int getInitialEdgesTouched(int pointerId) {
+            final int slot = slotOf(pointerId);
+            return slot >= 0 ? initialEdgesTouched[slot] : 0;
+        }
+
+        int getEdgeDragsInProgress(int pointerId) {
+            final int slot = slotOf(pointerId);
+            return slot >= 0 ? edgeDragsInProgress[slot] : 0;
+        }
+
+        int getEdgeDragsLocked(int pointerId) {
+            final int slot = slotOf(pointerId);
+            return slot >= 0 ? edgeDragsLocked[slot] : 0;
+        }
+
+        void addEdgeDragsInProgress(int pointerId, int edges) {
+            final int slot = slotOf(pointerId);
+            if (slot >= 0) {
+                edgeDragsInProgress[slot] |= edges;
+            }
+        }
+
+        void addEdgeDragsLocked(int pointerId, int edges) {
+            final int slot = slotOf(pointerId);
+            if (slot >= 0) {
+                edgeDragsLocked[slot] |= edges;
+            }
+        }
+    }
 }
@@ -0,0 +1,69 @@
+package com.erkas.app.scalepanel;
+
+import java.util.Arrays;
+
+/**
+ * Offsets a panel can come to rest at, and the one a released panel settles at. Free of
+ * Android, so the snapping can be tested on a plain JVM.
+ */
+final class PanelAnchors {
+
+    /**
+     * How long a released panel is taken to keep moving at its release velocity when
+     * projecting where a fling would stop.
+     */
+    static final float FLING_PROJECTION_TIME = 0.3f; // s
+
+    private PanelAnchors() {
+    }
+
+    /**
+     * @param anchors Offsets in [0, 1], in any order
+     * @return The anchors with expanded (0) and collapsed (1) added, sorted and without
+     *         duplicates
+     */
+    static float[] normalize(float[] anchors) {
+        final float[] sorted = Arrays.copyOf(anchors, anchors.length + 2);
+        sorted[anchors.length] = 0.f;
+        sorted[anchors.length + 1] = 1.f;
+        Arrays.sort(sorted);
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (count == 0 || sorted[i] != sorted[count - 1]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, count);
+    }
+
+    /**
+     * Pick the anchor a panel axis settles at, by binary search over the sorted anchors.
+     *
+     * @param anchors Anchors as returned by {@link #normalize(float[])}
+     * @param offset Current offset of the axis
+     * @param offsetVelocity Velocity of the offset in offsets per second, 0 if not flung
+     * @return The anchor offset to settle at
+     */
+    static float computeSnapOffset(float[] anchors, float offset, float offsetVelocity) {
+        final float projected = offset + offsetVelocity * FLING_PROJECTION_TIME;
+        int index = Arrays.binarySearch(anchors, projected);
+        if (index < 0) {
+            final int insertion = -index - 1;
+            if (insertion == 0) {
+                index = 0;
+            } else if (insertion == anchors.length) {
+                index = anchors.length - 1;
+            } else {
+                index = projected - anchors[insertion - 1] < anchors[insertion] - projected
+                        ? insertion - 1 : insertion;
+            }
+        }
+        // A fling moves the panel at least to the next anchor in its direction.
+        if (offsetVelocity < 0 && anchors[index] >= offset && index > 0) {
+            index--;
+        } else if (offsetVelocity > 0 && anchors[index] <= offset && index < anchors.length - 1) {
+            index++;
+        }
+        return anchors[index];
+    }
+}
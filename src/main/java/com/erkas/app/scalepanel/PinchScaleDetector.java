@@ -0,0 +1,102 @@
+package com.erkas.app.scalepanel;
+
+import android.support.v4.view.MotionEventCompat;
+import android.view.MotionEvent;
+
+/**
+ * Tracks the span between two pointers of a gesture and how fast it changes. Unlike
+ * ScaleGestureDetector it follows exactly two pointers, reports no callbacks and allocates
+ * nothing per event.
+ */
+class PinchScaleDetector {
+
+    private static final int INVALID_POINTER = -1;
+
+    /**
+     * Weight of the newest sample in the smoothed span velocity.
+     */
+    private static final float VELOCITY_SMOOTHING = 0.6f;
+
+    private int mPointerId0 = INVALID_POINTER;
+    private int mPointerId1 = INVALID_POINTER;
+
+    private float mInitialSpan;
+    private float mSpan;
+    private long mSpanTime;
+    private float mSpanVelocity;
+
+    /**
+     * Start tracking the first two pointers of the event.
+     *
+     * @return false if the event has less than two pointers
+     */
+    boolean begin(MotionEvent ev) {
+        if (MotionEventCompat.getPointerCount(ev) < 2) {
+            return false;
+        }
+        mPointerId0 = MotionEventCompat.getPointerId(ev, 0);
+        mPointerId1 = MotionEventCompat.getPointerId(ev, 1);
+        mInitialSpan = mSpan = computeSpan(ev, 0, 1);
+        mSpanTime = ev.getEventTime();
+        mSpanVelocity = 0;
+        return true;
+    }
+
+    /**
+     * Update the span from a move of the tracked pointers.
+     *
+     * @return false if one of the tracked pointers is gone
+     */
+    boolean update(MotionEvent ev) {
+        final int index0 = MotionEventCompat.findPointerIndex(ev, mPointerId0);
+        final int index1 = MotionEventCompat.findPointerIndex(ev, mPointerId1);
+        if (index0 < 0 || index1 < 0) {
+            return false;
+        }
+        final float span = computeSpan(ev, index0, index1);
+        final long time = ev.getEventTime();
+        final long dt = time - mSpanTime;
+        if (dt > 0) {
+            final float velocity = (span - mSpan) * 1000 / dt;
+            mSpanVelocity = VELOCITY_SMOOTHING * velocity + (1 - VELOCITY_SMOOTHING) * mSpanVelocity;
+            mSpanTime = time;
+        }
+        mSpan = span;
+        return true;
+    }
+
+    /**
+     * @return true if the pointer is one of the two tracked pointers
+     */
+    boolean isTracking(int pointerId) {
+        return pointerId != INVALID_POINTER && (pointerId == mPointerId0 || pointerId == mPointerId1);
+    }
+
+    void end() {
+        mPointerId0 = mPointerId1 = INVALID_POINTER;
+    }
+
+    boolean isInProgress() {
+        return mPointerId0 != INVALID_POINTER;
+    }
+
+    /**
+     * @return How much the span grew since the pinch began, in pixels
+     */
+    float getSpanDelta() {
+        return mSpan - mInitialSpan;
+    }
+
+    /**
+     * @return How fast the span grows, in pixels per second
+     */
+    float getSpanVelocity() {
+        return mSpanVelocity;
+    }
+
+    private static float computeSpan(MotionEvent ev, int index0, int index1) {
+        final float dx = MotionEventCompat.getX(ev, index1) - MotionEventCompat.getX(ev, index0);
+        final float dy = MotionEventCompat.getY(ev, index1) - MotionEventCompat.getY(ev, index0);
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+}
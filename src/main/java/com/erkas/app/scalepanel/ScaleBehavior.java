@@ -0,0 +1,144 @@
+package com.erkas.app.scalepanel;
+
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+import android.view.animation.Interpolator;
+
+/**
+ * Transforms of a child of {@link ScalePanelLayout} declared as functions of a panel's offset,
+ * e.g. a parallax background or a toolbar fading out while the panel expands.
+ *
+ * <p>Attach it with {@link ScalePanelLayout#setChildBehavior}. The layout evaluates the
+ * behaviors of all its children in one pass right before each frame is drawn, and only for
+ * children whose panel offset changed, instead of each listener setting properties on its own
+ * for every drag sample.</p>
+ *
+ * <p>Each declared property goes linearly from its expanded value at offset 0 to its collapsed
+ * value at offset 1. The range and curve can be changed with {@link #setOffsetRange} and
+ * {@link #setInterpolator}. Override {@link #onApply} to drive anything else.</p>
+ */
+public class ScaleBehavior {
+
+    public static final int TRANSLATION_X = 0;
+    public static final int TRANSLATION_Y = 1;
+    public static final int SCALE_X = 2;
+    public static final int SCALE_Y = 3;
+    public static final int ALPHA = 4;
+
+    private static final int PROPERTY_COUNT = 5;
+
+    /**
+     * Bit per declared property, and its value at each end of the range.
+     */
+    private int mProperties;
+    private final float[] mExpandedValues = new float[PROPERTY_COUNT];
+    private final float[] mCollapsedValues = new float[PROPERTY_COUNT];
+
+    private float mStartOffset = 0.f;
+    private float mEndOffset = 1.f;
+    private Interpolator mInterpolator;
+
+    /**
+     * Declare a property of the child as a function of the offset.
+     *
+     * @param property One of {@link #TRANSLATION_X}, {@link #TRANSLATION_Y}, {@link #SCALE_X},
+     *                 {@link #SCALE_Y} or {@link #ALPHA}
+     * @param expandedValue Value when the panel is expanded
+     * @param collapsedValue Value when the panel is collapsed
+     */
+    public ScaleBehavior setProperty(int property, float expandedValue, float collapsedValue) {
+        if (property < 0 || property >= PROPERTY_COUNT) {
+            throw new IllegalArgumentException("Unknown property: " + property);
+        }
+        mProperties |= 1 << property;
+        mExpandedValues[property] = expandedValue;
+        mCollapsedValues[property] = collapsedValue;
+        return this;
+    }
+
+    /**
+     * Stop driving a property. The child keeps its current value.
+     */
+    public ScaleBehavior clearProperty(int property) {
+        if (property < 0 || property >= PROPERTY_COUNT) {
+            throw new IllegalArgumentException("Unknown property: " + property);
+        }
+        mProperties &= ~(1 << property);
+        return this;
+    }
+
+    /**
+     * Set the offsets the properties change between. Below the start offset they keep their
+     * expanded values, above the end offset their collapsed values.
+     */
+    public ScaleBehavior setOffsetRange(float startOffset, float endOffset) {
+        if (!(startOffset >= 0 && endOffset <= 1 && startOffset < endOffset)) {
+            throw new IllegalArgumentException("Offset range must be within [0, 1] and not empty");
+        }
+        mStartOffset = startOffset;
+        mEndOffset = endOffset;
+        return this;
+    }
+
+    /**
+     * @param interpolator Curve applied to the position within the offset range, or null for linear
+     */
+    public ScaleBehavior setInterpolator(Interpolator interpolator) {
+        mInterpolator = interpolator;
+        return this;
+    }
+
+    /**
+     * @return Position of the offset within the offset range, through the interpolator: 0 at
+     *         the start of the range, 1 at its end.
+     */
+    protected float getFraction(float offset) {
+        final float fraction;
+        if (offset <= mStartOffset) {
+            fraction = 0.f;
+        } else if (offset >= mEndOffset) {
+            fraction = 1.f;
+        } else {
+            fraction = (offset - mStartOffset) / (mEndOffset - mStartOffset);
+        }
+        return mInterpolator != null ? mInterpolator.getInterpolation(fraction) : fraction;
+    }
+
+    /**
+     * Apply the declared properties for the offset. Called on the UI thread before a frame is
+     * drawn, when the offset changed since the last call.
+     *
+     * @param child The child the behavior is attached to
+     * @param offset Offset of the panel the behavior follows, 0 expanded to 1 collapsed
+     */
+    public void onApply(View child, float offset) {
+        if (mProperties == 0) {
+            return;
+        }
+        final float fraction = getFraction(offset);
+        for (int property = 0; property < PROPERTY_COUNT; property++) {
+            if ((mProperties & (1 << property)) == 0) {
+                continue;
+            }
+            final float value = mExpandedValues[property]
+                    + (mCollapsedValues[property] - mExpandedValues[property]) * fraction;
+            switch (property) {
+                case TRANSLATION_X:
+                    ViewCompat.setTranslationX(child, value);
+                    break;
+                case TRANSLATION_Y:
+                    ViewCompat.setTranslationY(child, value);
+                    break;
+                case SCALE_X:
+                    ViewCompat.setScaleX(child, value);
+                    break;
+                case SCALE_Y:
+                    ViewCompat.setScaleY(child, value);
+                    break;
+                case ALPHA:
+                    ViewCompat.setAlpha(child, value);
+                    break;
+            }
+        }
+    }
+}
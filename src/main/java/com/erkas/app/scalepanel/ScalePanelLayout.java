@@ -1,5 +1,8 @@
 package com.erkas.app.scalepanel;
 
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
@@ -7,17 +10,25 @@ import android.graphics.Paint;
 import android.graphics.PixelFormat;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.v4.view.GravityCompat;
 import android.support.v4.view.MotionEventCompat;
 import android.support.v4.view.ViewCompat;
+import android.support.v4.widget.ChoreographerCompat;
+import android.support.v4.widget.ImpulseVelocityEstimator;
+import android.support.v4.widget.VelocityEstimator;
 import android.support.v4.widget.ViewDragHelper;
 import android.support.v4.widget.ViewDragHelperCustom;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.*;
 import android.view.accessibility.AccessibilityEvent;
+import android.view.animation.DecelerateInterpolator;
+import android.view.animation.Interpolator;
+
+import java.util.Arrays;
 
 
 public class ScalePanelLayout extends ViewGroup {
@@ -44,18 +55,70 @@ public class ScalePanelLayout extends ViewGroup {
      */
     private static final int DEFAULT_MIN_FLING_VELOCITY = 400; // dips per second
 
+    /**
+     * View.SCROLL_AXIS_VERTICAL, for nested scrolling on Lollipop and up.
+     */
+    private static final int SCROLL_AXIS_VERTICAL = 1 << 1;
+
+    /**
+     * Anchors of a panel that only rests expanded or collapsed.
+     */
+    private static final float[] DEFAULT_ANCHORS = { 0.f, 1.f };
+
+    /**
+     * Build.VERSION_CODES.LOLLIPOP, from which ViewPropertyAnimator can run translations on the
+     * render thread.
+     */
+    private static final int RENDER_THREAD_ANIMATION_SDK = 21;
+
+    /**
+     * Duration of a programmatic slide run as a property animation.
+     */
+    private static final long OFFLOADED_SLIDE_DURATION = 300; // ms
+
+    private static final Interpolator sOffloadedSlideInterpolator = new DecelerateInterpolator(2.f);
+
     /**
      * Default attributes for layout
      */
     private static final int[] DEFAULT_ATTRS = new int[] {
             android.R.attr.gravity
     };
-    private boolean mIsGravityRight;
 
     /**
-     * Use Expand View Width when sliding
+     * Expand view is resized through its LayoutParams on every position change.
+     */
+    public static final int RENDER_MODE_LAYOUT = 0;
+
+    /**
+     * Expand view is scaled and translated through its render properties while the panel moves
+     * and is laid out again only once, when the panel comes to rest. Applies to panels that are
+     * their own expand view, a nested expand view is resized as in {@link #RENDER_MODE_LAYOUT}.
+     */
+    public static final int RENDER_MODE_TRANSFORM = 1;
+
+    /**
+     * Panel scales along the horizontal axis, see {@link #setPanelScaleAxes(View, int)}.
+     */
+    public static final int SCALE_AXIS_HORIZONTAL = 1;
+
+    /**
+     * Panel scales along the vertical axis, see {@link #setPanelScaleAxes(View, int)}.
      */
-    private boolean mUseExpandView = false;
+    public static final int SCALE_AXIS_VERTICAL = 1 << 1;
+
+    /**
+     * Number of frames in a row the content of a layered panel may invalidate itself before its
+     * hardware layer is dropped for the rest of the gesture.
+     */
+    private static final int LAYER_DIRTY_FRAME_LIMIT = 3;
+
+    /**
+     * Gravity of the layout, used by panels that do not set their own layout_gravity.
+     */
+    private int mGravity = Gravity.NO_GRAVITY;
+
+    private boolean mIsGravityRight;
 
     /**
      * Expand View Res Id
@@ -63,19 +126,46 @@ public class ScalePanelLayout extends ViewGroup {
     private int mExpandViewResId = -1;
 
     /**
-     * Expand View when sliding
+     * How the expand view follows the panel, one of {@link #RENDER_MODE_LAYOUT} or
+     * {@link #RENDER_MODE_TRANSFORM}.
      */
-    private View mExpandView;
+    private int mRenderMode = RENDER_MODE_LAYOUT;
 
     /**
-     * Expand View min width
+     * True if a layout was requested while the panel was moving and has been held back until
+     * the drag helper goes idle.
      */
-    private int mExpandMinWidth = -1;
+    private boolean mLayoutDeferred;
 
     /**
-     * Expand View min height
+     * View promoted to a hardware layer while a panel is dragged or settling, if any.
      */
-    private int mExpandMinHeight = -1;
+    private View mLayerView;
+
+    /**
+     * True if a descendant invalidated the layered view since the last frame, and the number
+     * of frames in a row that happened.
+     */
+    private boolean mLayerInvalidated;
+    private int mLayerDirtyFrames;
+
+    /**
+     * True if the layer was dropped because of self updating content, until the panel rests.
+     */
+    private boolean mLayerSuppressed;
+
+    /**
+     * True while the drag helper moves a panel. Invalidations caused by the move itself must not
+     * count as the content of the panel changing.
+     */
+    private boolean mMovingPanel;
+
+    /**
+     * True between the drag helper clamping a drag position and reporting the move, which is
+     * when it offsets the panel. Resampled drags run from a frame callback, outside of the
+     * touch handling covered by {@link #mMovingPanel}.
+     */
+    private boolean mDraggingPanel;
 
     /**
      * Minimum velocity that will be detected as a fling
@@ -108,22 +198,11 @@ public class ScalePanelLayout extends ViewGroup {
      */
     private boolean mIsExpanding;
 
-    /**
-     * True if the collapsed panel should be dragged up.
-     */
-    private boolean mIsGravityBottom;
-
     /**
      * True if a panel can scale change with the current measurements
      */
     private boolean mCanScaleChange;
 
-    /**
-     * If provided, the panel can be dragged by only this view. Otherwise, the entire panel can be
-     * used for dragging.
-     */
-    private View mDragView;
-
     /**
      * If provided, the panel can be dragged by only this view. Otherwise, the entire panel can be
      * used for dragging.
@@ -131,32 +210,19 @@ public class ScalePanelLayout extends ViewGroup {
     private int mDragViewResId = -1;
 
     /**
-     * The child view that can scale, if any.
+     * The first child view that can scale, if any. Calls that do not name a panel act on it.
      */
     private View mScaleableView;
 
     /**
-     * Current state of the scaleable view.
+     * Current state of the scaleable view. Ordinals are the {@link ScaleSnapshot} state
+     * constants.
      */
     private enum ScaleState {
         EXPANDED,
+        ANCHORED,
         COLLAPSED
     }
-    private ScaleState mScaleState = ScaleState.COLLAPSED;
-
-    /**
-     * How far the panel is offset from its expanded position.
-     * range [0, 1] where 0 = expanded, 1 = collapsed.
-     */
-    private float mScaleOffset;
-
-    /**
-     * How far in pixels the scaleable panel may move.
-     *
-     * collapse -> expand 일때 뷰의 크기 변화 값.
-     */
-    private int mScaleRangeY;
-    private int mScaleRangeX;
 
     /**
      * A panel view is locked into internal scrolling or another condition that
@@ -194,9 +260,130 @@ public class ScalePanelLayout extends ViewGroup {
     private float mInitialMotionX;
     private float mInitialMotionY;
 
+    private static final PanelScaleListener[] NO_SCALE_LISTENERS = new PanelScaleListener[0];
+    private static final ThresholdRegistration[] NO_THRESHOLD_LISTENERS = new ThresholdRegistration[0];
+
+    /**
+     * Listener set with {@link #setPanelScaleListener}, one of the registered scale listeners.
+     */
     private PanelScaleListener mPanelScaleListener;
 
+    /**
+     * Registered listeners. The arrays are replaced on every change and never modified, so a
+     * dispatch walks them without copying and listeners can unregister from their callbacks.
+     */
+    private PanelScaleListener[] mScaleListeners = NO_SCALE_LISTENERS;
+    private ThresholdRegistration[] mThresholdListeners = NO_THRESHOLD_LISTENERS;
+
+    /**
+     * Reports the panels moved since the last frame. Offset changes are reported at most once
+     * per frame, however many drag samples or settle steps moved the panel.
+     */
+    private final ChoreographerCompat.FrameCallback mScaleDispatchFrameCallback = new ChoreographerCompat.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mScaleDispatchPosted = false;
+            flushPanelScales();
+        }
+    };
+    private boolean mScaleDispatchPosted;
+
+    /**
+     * Number of children with a {@link ScaleBehavior}, evaluated together right before each frame
+     * is drawn.
+     */
+    private int mBehaviorCount;
+
+    private final ViewTreeObserver.OnPreDrawListener mBehaviorPreDrawListener = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            if (mBehaviorCount > 0) {
+                applyBehaviors();
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Listener set through {@link #setOnHierarchyChangeListener}, called after the layout's own.
+     */
+    private OnHierarchyChangeListener mOnHierarchyChangeListener;
+
     private final ViewDragHelperCustom mDragHelper;
+    private final DragHelperCallback mDragCallback;
+
+    /**
+     * Panel moved by the nested scroll in progress, if any, the axes of that scroll and whether
+     * it moved the panel yet.
+     */
+    private View mNestedScrollPanel;
+    private int mNestedScrollAxes;
+    private boolean mNestedScrollMoved;
+
+    /**
+     * True if two finger pinches scale the panel under them.
+     */
+    private boolean mPinchEnabled;
+
+    /**
+     * True if programmatic slides run as property animations where the platform can.
+     */
+    private boolean mOffloadAnimations;
+
+    private final PinchScaleDetector mPinchDetector = new PinchScaleDetector();
+
+    /**
+     * Panel scaled by the pinch in progress, if any, its offsets when the pinch began and how
+     * far the pinch moved them since. The offsets are applied once per frame, like resampled
+     * drags.
+     */
+    private View mPinchPanel;
+    private float mPinchStartOffsetX;
+    private float mPinchStartOffsetY;
+    private float mPinchOffsetDelta;
+
+    /**
+     * Advances a settling panel once per frame, before the frame is drawn. The first frame after
+     * a restore also resumes the settles that were running when the state was saved.
+     */
+    private final ChoreographerCompat.FrameCallback mSettleFrameCallback = new ChoreographerCompat.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mSettleFramePosted = false;
+            if (mResumeSettlesPending) {
+                mResumeSettlesPending = false;
+                resumeRestoredSettles();
+            }
+            continueSettling(frameTimeNanos / 1000000L);
+            // Report the step in this frame rather than the next one.
+            flushPanelScales();
+        }
+    };
+    private boolean mSettleFramePosted;
+    private boolean mResumeSettlesPending;
+
+    /**
+     * Drag positions the settling panel is retargeted to on the next settle frame. Programmatic
+     * expand and collapse calls made while it settles only keep the latest target.
+     */
+    private boolean mRetargetPending;
+    private int mRetargetX;
+    private int mRetargetY;
+
+    /**
+     * Number of panels a {@link ScaleTimeline} is moving, and whether all of them move without
+     * needing a layout.
+     */
+    private int mTimelineMoves;
+    private boolean mTimelineLayoutFree;
+
+    private final ChoreographerCompat.FrameCallback mPinchFrameCallback = new ChoreographerCompat.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            applyPinchOffset();
+            flushPanelScales();
+        }
+    };
 
     /**
      * Stores whether or not the pane was expanded the last time it was scaleable.
@@ -207,6 +394,11 @@ public class ScalePanelLayout extends ViewGroup {
 
     private final Rect mTmpRect = new Rect();
 
+    /**
+     * Region invalidated for the last panel move.
+     */
+    private final Rect mDirtyRect = new Rect();
+
     /**
      * Listener for monitoring events about sliding panes.
      */
@@ -233,19 +425,78 @@ public class ScalePanelLayout extends ViewGroup {
     }
 
     /**
-     * No-op stubs for {@link ScalePanelLayout.PanelScaleListener}. If you only want to implement a subset
-     * of the listener methods you can extend this instead of implement the full interface.
+     * {@link PanelScaleListener} that is also told when a pane comes to rest between expanded
+     * and collapsed.
+     */
+    public interface PanelAnchorListener extends PanelScaleListener {
+        /**
+         * Called when a scale pane comes to rest between expanded and collapsed, at one of its
+         * anchors or at an offset given to {@link #expandPane(View, float)}.
+         * @param panel The child view that came to rest
+         */
+        public void onPanelAnchored(View panel);
+    }
+
+    /**
+     * {@link PanelScaleListener} that is also told the offset of each axis, for panels that scale
+     * along both axes independently.
+     */
+    public interface PanelAxesScaleListener extends PanelScaleListener {
+        /**
+         * Called along with {@link #onPanelScale(View, float)} when a pane's position changes.
+         * @param panel The child view that was moved
+         * @param scaleOffsetX The new horizontal offset of the pane within its range, from 0-1 (expand - collapse)
+         * @param scaleOffsetY The new vertical offset of the pane within its range, from 0-1 (expand - collapse)
+         */
+        public void onPanelScale(View panel, float scaleOffsetX, float scaleOffsetY);
+    }
+
+    /**
+     * Listener for a panel's offset passing given values, for callers that only care about e.g.
+     * the panel being more than 20% expanded and not about every offset in between.
+     */
+    public interface PanelThresholdListener {
+        /**
+         * Called when a pane's offset passes one of the thresholds the listener was added with.
+         * Thresholds passed within one frame are reported in the order the pane passed them.
+         * @param panel The child view that was moved
+         * @param threshold The offset that was passed
+         * @param collapsing true if the offset grew past the threshold, false if it dropped below it
+         */
+        public void onPanelThresholdCrossed(View panel, float threshold, boolean collapsing);
+    }
+
+    private static class ThresholdRegistration {
+        final PanelThresholdListener listener;
+        final float[] thresholds;
+
+        ThresholdRegistration(PanelThresholdListener listener, float[] thresholds) {
+            this.listener = listener;
+            this.thresholds = thresholds;
+        }
+    }
+
+    /**
+     * No-op stubs for {@link ScalePanelLayout.PanelAxesScaleListener} and {@link ScalePanelLayout.PanelAnchorListener}.
+     * If you only want to implement a subset of the listener methods you can extend this instead of
+     * implement the full interfaces.
      */
-    public static class SimplePanelScaleListener implements PanelScaleListener {
+    public static class SimplePanelScaleListener implements PanelAxesScaleListener, PanelAnchorListener {
         @Override
         public void onPanelScale(View panel, float slideOffset) {
         }
         @Override
+        public void onPanelScale(View panel, float scaleOffsetX, float scaleOffsetY) {
+        }
+        @Override
         public void onPanelCollapsed(View panel) {
         }
         @Override
         public void onPanelExpanded(View panel) {
         }
+        @Override
+        public void onPanelAnchored(View panel) {
+        }
     }
 
     public ScalePanelLayout(Context context) {
@@ -262,10 +513,13 @@ public class ScalePanelLayout extends ViewGroup {
             TypedArray defAttrs = context.obtainStyledAttributes(attrs, DEFAULT_ATTRS);
 
             if (defAttrs != null) {
-                int mGravity = defAttrs.getInt(0, Gravity.NO_GRAVITY);
+                mGravity = defAttrs.getInt(0, Gravity.NO_GRAVITY);
 
+                // Panels may set their own layout_gravity, the layout gravity is only checked
+                // when it is given.
                 final int majorGravity = mGravity & Gravity.VERTICAL_GRAVITY_MASK;
-                if (majorGravity != Gravity.TOP && majorGravity != Gravity.BOTTOM) {
+                if (mGravity != Gravity.NO_GRAVITY
+                        && majorGravity != Gravity.TOP && majorGravity != Gravity.BOTTOM) {
                     throw new IllegalArgumentException("layout_gravity must be set to either top or bottom");
                 }
 
@@ -273,7 +527,6 @@ public class ScalePanelLayout extends ViewGroup {
                 final int absoluteGravity = GravityCompat.getAbsoluteGravity(mGravity, layoutDirection); // for RTL, LTR
                 final int minorGravity = absoluteGravity & Gravity.HORIZONTAL_GRAVITY_MASK;
                 mIsExpanding = true;
-                mIsGravityBottom = majorGravity == Gravity.BOTTOM;
                 mIsGravityRight = minorGravity == Gravity.RIGHT;
 
                 defAttrs.recycle();
@@ -290,6 +543,9 @@ public class ScalePanelLayout extends ViewGroup {
 
                 mDragViewResId = ta.getResourceId(R.styleable.ScalePanelLayout_dragView, -1);
                 mExpandViewResId = ta.getResourceId(R.styleable.ScalePanelLayout_expandView, -1);
+                mRenderMode = ta.getInt(R.styleable.ScalePanelLayout_renderMode, RENDER_MODE_LAYOUT);
+                mPinchEnabled = ta.getBoolean(R.styleable.ScalePanelLayout_pinchToScale, false);
+                mOffloadAnimations = ta.getBoolean(R.styleable.ScalePanelLayout_offloadAnimations, false);
 
                 ta.recycle();
             }
@@ -305,14 +561,19 @@ public class ScalePanelLayout extends ViewGroup {
 
         setWillNotDraw(false);
 
-        mDragHelper = ViewDragHelperCustom.create(this, 0.5f, new DragHelperCallback());
+        mDragCallback = new DragHelperCallback();
+        mDragHelper = ViewDragHelperCustom.create(this, 0.5f, mDragCallback);
         mDragHelper.setMinVelocity(mMinFlingVelocity * density);
+        mDragHelper.setVelocityEstimator(new ImpulseVelocityEstimator());
+        mDragHelper.setDragMode(ViewDragHelperCustom.DRAG_MODE_RESAMPLED);
 
         mCanScaleChange = true;
         mIsScaleEnabled = true;
 
         ViewConfiguration vc = ViewConfiguration.get(context);
         mScrollTouchSlop = vc.getScaledTouchSlop();
+
+        super.setOnHierarchyChangeListener(new HierarchyChangeListener());
     }
 
     /**
@@ -321,14 +582,48 @@ public class ScalePanelLayout extends ViewGroup {
     @Override
     protected void onFinishInflate() {
         super.onFinishInflate();
+        // Layout level drag and expand views belong to the panel that contains them.
         if (mDragViewResId != -1) {
-            mDragView = findViewById(mDragViewResId);
+            setDragView(findViewById(mDragViewResId));
         }
 
         if (mExpandViewResId != -1) {
-            mExpandView = findViewById(mExpandViewResId);
-            mUseExpandView = true;
+            setExpandView(findViewById(mExpandViewResId));
+        }
+
+        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+            resolvePanelViews(getChildAt(i));
+        }
+    }
+
+    /**
+     * Look up the drag and expand views a panel names through its LayoutParams.
+     */
+    private void resolvePanelViews(View child) {
+        final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+        if (lp.dragHandleCount == 0 && lp.dragViewResId != -1) {
+            final View dragView = child.findViewById(lp.dragViewResId);
+            if (dragView != null) {
+                addPanelDragHandle(lp, dragView);
+            }
+        }
+        if (lp.expandView == null && lp.expandViewResId != -1) {
+            lp.expandView = child.findViewById(lp.expandViewResId);
+        }
+    }
+
+    /**
+     * @return The direct child of this layout that contains the given view, or null.
+     */
+    private View findPanelFor(View view) {
+        while (view != null) {
+            final ViewParent parent = view.getParent();
+            if (parent == this) {
+                return view;
+            }
+            view = parent instanceof View ? (View) parent : null;
         }
+        return null;
     }
 
     /**
@@ -383,108 +678,893 @@ public class ScalePanelLayout extends ViewGroup {
         return mPanelHeight;
     }
 
-    public void setPanelScaleListener(PanelScaleListener listener) {
-        mPanelScaleListener = listener;
+    /**
+     * Set how the expand view follows the panel while it is dragged or settling.
+     *
+     * @param renderMode {@link #RENDER_MODE_LAYOUT} or {@link #RENDER_MODE_TRANSFORM}
+     */
+    public void setRenderMode(int renderMode) {
+        if (renderMode != RENDER_MODE_LAYOUT && renderMode != RENDER_MODE_TRANSFORM) {
+            throw new IllegalArgumentException("Unknown render mode: " + renderMode);
+        }
+        if (mRenderMode == renderMode) {
+            return;
+        }
+        mRenderMode = renderMode;
+
+        if (renderMode == RENDER_MODE_LAYOUT) {
+            for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+                final View child = getChildAt(i);
+                final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+                if (lp.scaleable && lp.expandView != null) {
+                    resetExpandViewTransform(lp.expandView);
+                    lp.expandLayoutPending = false;
+                    onExpandViewResize(child, lp);
+                }
+            }
+        }
     }
 
     /**
-     * Set the draggable view portion. Use to null, to allow the whole panel to be draggable
+     * @return The current render mode, {@link #RENDER_MODE_LAYOUT} or {@link #RENDER_MODE_TRANSFORM}
+     */
+    public int getRenderMode() {
+        return mRenderMode;
+    }
+
+    /**
+     * Set the estimator deciding release velocities, and with them whether a panel flings open or
+     * closed. An {@link ImpulseVelocityEstimator} is used by default.
      *
-     * @param dragView A view that will be used to drag the panel.
+     * @param estimator Velocity estimator to use, or null for the platform VelocityTracker
      */
-    public void setDragView(View dragView) {
-        mDragView = dragView;
+    public void setVelocityEstimator(VelocityEstimator estimator) {
+        mDragHelper.setVelocityEstimator(estimator);
     }
 
+    /**
+     * Set how drag input moves the panel. Resampled input applied once per frame is used by
+     * default.
+     *
+     * @param dragMode {@link ViewDragHelperCustom#DRAG_MODE_IMMEDIATE},
+     *                 {@link ViewDragHelperCustom#DRAG_MODE_COALESCED} or
+     *                 {@link ViewDragHelperCustom#DRAG_MODE_RESAMPLED}
+     */
+    public void setDragMode(int dragMode) {
+        mDragHelper.setDragMode(dragMode);
+    }
 
-    void dispatchOnPanelScale(View panel) {
-        if (mPanelScaleListener != null) {
-            mPanelScaleListener.onPanelScale(panel, mScaleOffset);
+    /**
+     * Set whether two finger pinches scale the panel under them. Spreading the fingers expands
+     * the panel, pinching them collapses it, and on release the panel settles the way the pinch
+     * was heading.
+     */
+    public void setPinchEnabled(boolean enabled) {
+        if (!enabled && mPinchPanel != null) {
+            endPinch(0);
         }
+        mPinchEnabled = enabled;
     }
 
-    void dispatchOnPanelExpanded(View panel) {
-        if (mPanelScaleListener != null) {
-            mPanelScaleListener.onPanelExpanded(panel);
+    /**
+     * @return true if two finger pinches scale the panel under them
+     */
+    public boolean isPinchEnabled() {
+        return mPinchEnabled;
+    }
+
+    /**
+     * Set whether {@link #expandPane()} and {@link #collapsePane()} run as property animations of
+     * the panel's translation on Lollipop and up, which the platform can run on the render thread
+     * so they keep going while the UI thread is busy. The panel's offset and state are updated
+     * once the animation ends, listeners do not see the offsets in between.
+     *
+     * <p>Only a panel that is the sole visible child of the layout, with no expand view, no
+     * published {@link ScaleSnapshot} and no {@link ScaleBehavior}s in the layout, is animated
+     * this way. Everything else follows the offset from the UI thread on every frame and takes
+     * the regular path, as do older platforms and slides started by touch.</p>
+     */
+    public void setAnimationOffloadEnabled(boolean enabled) {
+        if (!enabled) {
+            finishOffloadedSlides();
         }
-        sendAccessibilityEvent(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED);
+        mOffloadAnimations = enabled;
     }
 
-    void dispatchOnPanelCollapsed(View panel) {
+    /**
+     * @return true if programmatic slides run as property animations where the platform can
+     */
+    public boolean isAnimationOffloadEnabled() {
+        return mOffloadAnimations;
+    }
+
+    /**
+     * Set the listener for panel events, replacing the one set before. Listeners added with
+     * {@link #addPanelScaleListener} are kept.
+     */
+    public void setPanelScaleListener(PanelScaleListener listener) {
         if (mPanelScaleListener != null) {
-            mPanelScaleListener.onPanelCollapsed(panel);
+            removePanelScaleListener(mPanelScaleListener);
+        }
+        mPanelScaleListener = listener;
+        if (listener != null) {
+            addPanelScaleListener(listener);
         }
-        sendAccessibilityEvent(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED);
     }
 
-    void updateObscuredViewVisibility() {
-        if (getChildCount() == 0) {
-            return;
+    /**
+     * Add a listener for panel events. Offset changes are reported at most once per frame.
+     */
+    public void addPanelScaleListener(PanelScaleListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener must not be null");
         }
-        final int leftBound = getPaddingLeft();
-        final int rightBound = getWidth() - getPaddingRight();
-        final int topBound = getPaddingTop();
-        final int bottomBound = getHeight() - getPaddingBottom();
-        final int left;
-        final int right;
-        final int top;
-        final int bottom;
-        if (mScaleableView != null && hasOpaqueBackground(mScaleableView)) {
-            left = mScaleableView.getLeft();
-            right = mScaleableView.getRight();
-            top = mScaleableView.getTop();
-            bottom = mScaleableView.getBottom();
-        } else {
-            left = right = top = bottom = 0;
-        }
-        View child = getChildAt(0);
-        final int clampedChildLeft = Math.max(leftBound, child.getLeft());
-        final int clampedChildTop = Math.max(topBound, child.getTop());
-        final int clampedChildRight = Math.min(rightBound, child.getRight());
-        final int clampedChildBottom = Math.min(bottomBound, child.getBottom());
-        final int vis;
-        if (clampedChildLeft >= left && clampedChildTop >= top &&
-                clampedChildRight <= right && clampedChildBottom <= bottom) {
-            vis = INVISIBLE;
-        } else {
-            vis = VISIBLE;
+        final PanelScaleListener[] listeners = mScaleListeners;
+        final PanelScaleListener[] added = Arrays.copyOf(listeners, listeners.length + 1);
+        added[listeners.length] = listener;
+        mScaleListeners = added;
+    }
+
+    public void removePanelScaleListener(PanelScaleListener listener) {
+        final PanelScaleListener[] listeners = mScaleListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                final PanelScaleListener[] removed = new PanelScaleListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, removed, 0, i);
+                System.arraycopy(listeners, i + 1, removed, i, removed.length - i);
+                mScaleListeners = removed;
+                if (listener == mPanelScaleListener) {
+                    mPanelScaleListener = null;
+                }
+                return;
+            }
         }
-        child.setVisibility(vis);
     }
 
-    void setAllChildrenVisible() {
-        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
-            final View child = getChildAt(i);
-            if (child.getVisibility() == INVISIBLE) {
-                child.setVisibility(VISIBLE);
+    /**
+     * Add a listener told when a panel's offset passes one of the given thresholds, checked
+     * once per frame.
+     *
+     * @param listener Listener to add
+     * @param thresholds Offsets in [0, 1], in any order
+     */
+    public void addPanelThresholdListener(PanelThresholdListener listener, float... thresholds) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener must not be null");
+        }
+        if (thresholds == null || thresholds.length == 0) {
+            throw new IllegalArgumentException("At least one threshold is needed");
+        }
+        final float[] sorted = thresholds.clone();
+        for (float threshold : sorted) {
+            if (!(threshold >= 0 && threshold <= 1)) {
+                throw new IllegalArgumentException("Threshold out of range [0, 1]: " + threshold);
             }
         }
+        Arrays.sort(sorted);
+
+        final ThresholdRegistration[] listeners = mThresholdListeners;
+        final ThresholdRegistration[] added = Arrays.copyOf(listeners, listeners.length + 1);
+        added[listeners.length] = new ThresholdRegistration(listener, sorted);
+        mThresholdListeners = added;
     }
 
-    private static boolean hasOpaqueBackground(View v) {
-        final Drawable bg = v.getBackground();
-        if (bg != null) {
-            return bg.getOpacity() == PixelFormat.OPAQUE;
+    public void removePanelThresholdListener(PanelThresholdListener listener) {
+        final ThresholdRegistration[] listeners = mThresholdListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].listener == listener) {
+                final ThresholdRegistration[] removed = new ThresholdRegistration[listeners.length - 1];
+                System.arraycopy(listeners, 0, removed, 0, i);
+                System.arraycopy(listeners, i + 1, removed, i, removed.length - i);
+                mThresholdListeners = removed;
+                return;
+            }
         }
-        return false;
     }
 
-    @Override
-    protected void onAttachedToWindow() {
-        super.onAttachedToWindow();
-        mFirstLayout = true;
+    /**
+     * Set the draggable view portion. Use to null, to allow the whole panel to be draggable
+     *
+     * @param dragView A view that will be used to drag the panel that contains it.
+     */
+    public void setDragView(View dragView) {
+        final View panel = dragView != null ? findPanelFor(dragView) : mScaleableView;
+        if (panel != null) {
+            final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+            lp.dragHandleCount = 0;
+            if (dragView != null) {
+                addPanelDragHandle(lp, dragView);
+                updateDragHandleRects(panel, lp);
+            }
+        }
     }
 
-    @Override
-    protected void onDetachedFromWindow() {
-        super.onDetachedFromWindow();
-        mFirstLayout = true;
+    /**
+     * Add a view that drags the panel that contains it, next to the ones already registered.
+     *
+     * @param handle A view inside a panel, or the panel itself.
+     */
+    public void addDragHandle(View handle) {
+        final View panel = findPanelFor(handle);
+        if (panel != null) {
+            final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+            addPanelDragHandle(lp, handle);
+            updateDragHandleRects(panel, lp);
+        }
     }
 
-    @Override
-    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        final int widthMode = MeasureSpec.getMode(widthMeasureSpec);
-        final int widthSize = MeasureSpec.getSize(widthMeasureSpec);
+    /**
+     * Remove a view added with {@link #addDragHandle(View)} or {@link #setDragView(View)}.
+     * A panel without drag handles can be dragged by its whole area.
+     */
+    public void removeDragHandle(View handle) {
+        final View panel = findPanelFor(handle);
+        if (panel == null) {
+            return;
+        }
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+        for (int i = 0; i < lp.dragHandleCount; i++) {
+            if (lp.dragHandles[i] == handle) {
+                final int last = --lp.dragHandleCount;
+                // Keep the removed rect around for reuse.
+                final Rect rect = lp.dragHandleRects[i];
+                System.arraycopy(lp.dragHandles, i + 1, lp.dragHandles, i, last - i);
+                System.arraycopy(lp.dragHandleRects, i + 1, lp.dragHandleRects, i, last - i);
+                lp.dragHandles[last] = null;
+                lp.dragHandleRects[last] = rect;
+                return;
+            }
+        }
+    }
+
+    private static void addPanelDragHandle(LayoutParams lp, View handle) {
+        for (int i = 0; i < lp.dragHandleCount; i++) {
+            if (lp.dragHandles[i] == handle) {
+                return;
+            }
+        }
+        if (lp.dragHandleCount == lp.dragHandles.length) {
+            final int size = lp.dragHandleCount + 2;
+            final View[] handles = new View[size];
+            final Rect[] rects = new Rect[size];
+            System.arraycopy(lp.dragHandles, 0, handles, 0, lp.dragHandleCount);
+            System.arraycopy(lp.dragHandleRects, 0, rects, 0, lp.dragHandleCount);
+            lp.dragHandles = handles;
+            lp.dragHandleRects = rects;
+        }
+        if (lp.dragHandleRects[lp.dragHandleCount] == null) {
+            lp.dragHandleRects[lp.dragHandleCount] = new Rect();
+        }
+        lp.dragHandles[lp.dragHandleCount++] = handle;
+    }
+
+    /**
+     * Cache where the drag handles of a panel are in this layout's coordinates. Called after
+     * layout and whenever the panel moves, so hit testing is a rect lookup.
+     */
+    private static void updateDragHandleRects(View panel, LayoutParams lp) {
+        final float scaleX = ViewCompat.getScaleX(panel);
+        final float scaleY = ViewCompat.getScaleY(panel);
+        final int panelLeft = panel.getLeft() + (int) ViewCompat.getTranslationX(panel);
+        final int panelTop = panel.getTop() + (int) ViewCompat.getTranslationY(panel);
+
+        for (int i = 0; i < lp.dragHandleCount; i++) {
+            final View handle = lp.dragHandles[i];
+            final Rect rect = lp.dragHandleRects[i];
+
+            // Offset of the handle within the panel.
+            int left = 0;
+            int top = 0;
+            View view = handle;
+            while (view != panel) {
+                final ViewParent parent = view.getParent();
+                if (!(parent instanceof View)) {
+                    break;
+                }
+                left += view.getLeft() - ((View) parent).getScrollX();
+                top += view.getTop() - ((View) parent).getScrollY();
+                view = (View) parent;
+            }
+            if (view != panel) {
+                // Detached from the panel, it can not be hit.
+                rect.setEmpty();
+                continue;
+            }
+
+            // Map through the panel transform, which is pivoted on its top left corner.
+            rect.left = panelLeft + (int) (left * scaleX);
+            rect.top = panelTop + (int) (top * scaleY);
+            rect.right = rect.left + (int) (handle.getWidth() * scaleX);
+            rect.bottom = rect.top + (int) (handle.getHeight() * scaleY);
+        }
+    }
+
+    /**
+     * Set the view that grows with the panel that contains it.
+     *
+     * @param expandView A view inside a panel, or the panel itself.
+     */
+    public void setExpandView(View expandView) {
+        final View panel = findPanelFor(expandView);
+        if (panel != null) {
+            final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+            lp.expandView = expandView;
+            lp.expandMinWidth = -1;
+            lp.expandMinHeight = -1;
+            requestLayout();
+        }
+    }
+
+    /**
+     * Set whether the panel is drawn through a hardware layer while it is dragged or settling.
+     * Enabled by default. Disable it for panels that keep updating their own content while they
+     * move, such as video or progress views, since their layer would be rebuilt on every frame.
+     *
+     * @param panel A scaleable child of this layout
+     * @param enabled false to always draw the panel directly
+     */
+    public void setPanelHardwareLayerEnabled(View panel, boolean enabled) {
+        if (!isScaleablePanel(panel)) {
+            return;
+        }
+        ((LayoutParams) panel.getLayoutParams()).hardwareLayer = enabled;
+        if (!enabled && mLayerView != null && findPanelFor(mLayerView) == panel) {
+            disableMovingLayer();
+        }
+    }
+
+    /**
+     * Set the axes a panel scales along. A panel scaling along one axis grows its expand view
+     * along both with the same offset; a panel scaling along both axes is dragged and settles
+     * on each of them independently, so a corner panel can grow diagonally.
+     *
+     * @param panel Scaleable child of this layout
+     * @param axes {@link #SCALE_AXIS_HORIZONTAL}, {@link #SCALE_AXIS_VERTICAL} or both
+     */
+    public void setPanelScaleAxes(View panel, int axes) {
+        if (axes == 0 || (axes & ~(SCALE_AXIS_HORIZONTAL | SCALE_AXIS_VERTICAL)) != 0) {
+            throw new IllegalArgumentException("Unknown scale axes: " + axes);
+        }
+        if (!isScaleablePanel(panel)) {
+            return;
+        }
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+        if (lp.scaleAxes == axes) {
+            return;
+        }
+        if (mDragHelper.getCapturedView() == panel) {
+            mDragHelper.abort();
+        }
+        lp.scaleAxes = axes;
+        lp.setScaleOffsets(lp.scaleOffsetX, lp.scaleOffsetY);
+        requestLayout();
+    }
+
+    /**
+     * @return The axes the panel scales along, or 0 if it is not a scaleable child
+     */
+    public int getPanelScaleAxes(View panel) {
+        return isScaleablePanel(panel) ? ((LayoutParams) panel.getLayoutParams()).scaleAxes : 0;
+    }
+
+    /**
+     * Set the offsets a panel can come to rest at when released, e.g. 0, 0.4 and 1. Expanded (0)
+     * and collapsed (1) are always anchors. A released panel settles at the anchor nearest to
+     * where its fling would stop, at least one anchor further in the direction of the fling.
+     *
+     * @param panel Scaleable child of this layout
+     * @param anchors Offsets in [0, 1], in any order
+     */
+    public void setPanelAnchors(View panel, float... anchors) {
+        for (float anchor : anchors) {
+            if (!(anchor >= 0 && anchor <= 1)) {
+                throw new IllegalArgumentException("Anchor offsets must be in [0, 1]: " + anchor);
+            }
+        }
+        if (!isScaleablePanel(panel)) {
+            return;
+        }
+        ((LayoutParams) panel.getLayoutParams()).anchors = PanelAnchors.normalize(anchors);
+    }
+
+    /**
+     * @return The offsets the panel can come to rest at when released, in ascending order
+     */
+    public float[] getPanelAnchors(View panel) {
+        if (!isScaleablePanel(panel)) {
+            return DEFAULT_ANCHORS.clone();
+        }
+        return ((LayoutParams) panel.getLayoutParams()).anchors.clone();
+    }
+
+    /**
+     * Get the snapshot a panel's offset, drawn bounds and state are published to, for threads
+     * other than the UI thread. Call this on the UI thread; the snapshot can then be read from
+     * any thread and is updated whenever the panel moves, is laid out or comes to rest.
+     *
+     * @param panel Scaleable child of this layout
+     * @return The panel's snapshot, or null if it is not a scaleable child
+     */
+    public ScaleSnapshot getPanelSnapshot(View panel) {
+        if (!isScaleablePanel(panel)) {
+            return null;
+        }
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+        if (lp.snapshot == null) {
+            // Snapshots follow every frame, a slide running as a property animation would not.
+            cancelOffloadedSlide(panel);
+            lp.snapshot = new ScaleSnapshot();
+            publishSnapshot(lp);
+        }
+        return lp.snapshot;
+    }
+
+    /**
+     * Attach a behavior to a child, following the child's own offset if it is a scaleable panel,
+     * otherwise the offset of the most expanded panel.
+     *
+     * @param child Child of this layout
+     * @param behavior Behavior to attach, or null to detach the current one
+     */
+    public void setChildBehavior(View child, ScaleBehavior behavior) {
+        setChildBehavior(child, behavior, null);
+    }
+
+    /**
+     * Attach a behavior to a child, following the offset of the given panel. A behavior on a
+     * panel in {@link #RENDER_MODE_TRANSFORM} should not drive the properties the layout
+     * transforms the expand view with.
+     *
+     * @param child Child of this layout
+     * @param behavior Behavior to attach, or null to detach the current one
+     * @param panel Scaleable child whose offset the behavior follows, or null for the default
+     */
+    public void setChildBehavior(View child, ScaleBehavior behavior, View panel) {
+        if (child == null || child.getParent() != this) {
+            throw new IllegalArgumentException("View is not a child of this layout");
+        }
+        if (panel != null && !isScaleablePanel(panel)) {
+            throw new IllegalArgumentException("Behavior must follow a scaleable child of this layout");
+        }
+        final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+        if (lp.behavior != null) {
+            mBehaviorCount--;
+        }
+        if (behavior != null) {
+            mBehaviorCount++;
+            // Behaviors follow every frame, slides running as property animations would not.
+            finishOffloadedSlides();
+        }
+        lp.behavior = behavior;
+        lp.behaviorPanel = panel;
+        // Applied on the next frame whatever the offset is.
+        lp.behaviorOffset = -1;
+        invalidate();
+    }
+
+    /**
+     * @return The behavior attached to the child, or null
+     */
+    public ScaleBehavior getChildBehavior(View child) {
+        if (child == null || child.getParent() != this) {
+            return null;
+        }
+        return ((LayoutParams) child.getLayoutParams()).behavior;
+    }
+
+    @Override
+    public void setOnHierarchyChangeListener(OnHierarchyChangeListener listener) {
+        mOnHierarchyChangeListener = listener;
+    }
+
+    /**
+     * Drop the behavior of a removed child, so it is neither counted nor applied once the child
+     * is gone or added again, and send behaviors following a removed panel back to the default.
+     */
+    private void onChildRemoved(View child) {
+        final LayoutParams removed = (LayoutParams) child.getLayoutParams();
+        if (removed.behavior != null) {
+            mBehaviorCount--;
+            removed.behavior = null;
+        }
+        removed.behaviorPanel = null;
+        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+            final LayoutParams lp = (LayoutParams) getChildAt(i).getLayoutParams();
+            if (lp.behaviorPanel == child) {
+                lp.behaviorPanel = null;
+            }
+        }
+    }
+
+    /**
+     * Keeps the child bookkeeping in sync with removals. ViewGroup#onViewRemoved is not public
+     * before Marshmallow, the hierarchy listener is the way to hear of them on every platform.
+     */
+    private class HierarchyChangeListener implements OnHierarchyChangeListener {
+        @Override
+        public void onChildViewAdded(View parent, View child) {
+            if (mOnHierarchyChangeListener != null) {
+                mOnHierarchyChangeListener.onChildViewAdded(parent, child);
+            }
+        }
+
+        @Override
+        public void onChildViewRemoved(View parent, View child) {
+            onChildRemoved(child);
+            if (mOnHierarchyChangeListener != null) {
+                mOnHierarchyChangeListener.onChildViewRemoved(parent, child);
+            }
+        }
+    }
+
+    /**
+     * Apply the behaviors of all children whose offset changed since they were last applied.
+     */
+    private void applyBehaviors() {
+        float minOffset = -1;
+        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+            final View child = getChildAt(i);
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (lp.behavior == null) {
+                continue;
+            }
+            final float offset;
+            if (lp.behaviorPanel != null) {
+                offset = ((LayoutParams) lp.behaviorPanel.getLayoutParams()).scaleOffset;
+            } else if (lp.scaleable) {
+                offset = lp.scaleOffset;
+            } else {
+                if (minOffset < 0) {
+                    minOffset = getMinScaleOffset();
+                }
+                offset = minOffset;
+            }
+            if (offset != lp.behaviorOffset) {
+                lp.behaviorOffset = offset;
+                lp.behavior.onApply(child, offset);
+            }
+        }
+    }
+
+    private static void publishSnapshot(LayoutParams lp) {
+        final ScaleSnapshot snapshot = lp.snapshot;
+        if (snapshot == null) {
+            return;
+        }
+        final Rect bounds = lp.drawnBounds;
+        snapshot.publish(lp.scaleOffsetX, lp.scaleOffsetY, lp.scaleOffset,
+                bounds.left, bounds.top, bounds.right, bounds.bottom, lp.scaleState.ordinal());
+    }
+
+    /**
+     * @return The offset velocity of an axis for a drag velocity along it. Offsets grow towards
+     *         the end the panel is anchored to.
+     */
+    private static float toOffsetVelocity(boolean anchoredAtEnd, float velocity, int range) {
+        if (range <= 0) {
+            return 0;
+        }
+        return (anchoredAtEnd ? velocity : -velocity) / range;
+    }
+
+    /**
+     * Convert a velocity in offsets per second back to drag position pixels per second.
+     */
+    private static float toPositionVelocity(boolean anchoredAtEnd, float offsetVelocity, int range) {
+        return (anchoredAtEnd ? offsetVelocity : -offsetVelocity) * range;
+    }
+
+    /**
+     * @return true if the panel is drawn through a hardware layer while it moves
+     */
+    public boolean isPanelHardwareLayerEnabled(View panel) {
+        return isScaleablePanel(panel) && ((LayoutParams) panel.getLayoutParams()).hardwareLayer;
+    }
+
+
+    /**
+     * Note that the panel moved, it is reported to the listeners on the next frame unless moves
+     * made on a frame report it right away.
+     */
+    void dispatchOnPanelScale(View panel) {
+        ((LayoutParams) panel.getLayoutParams()).scaleDispatchPending = true;
+        if (!mScaleDispatchPosted) {
+            mScaleDispatchPosted = true;
+            ChoreographerCompat.getInstance().postFrameCallback(mScaleDispatchFrameCallback);
+        }
+    }
+
+    /**
+     * Report the offsets of all panels that moved since they were last reported.
+     */
+    private void flushPanelScales() {
+        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+            final View child = getChildAt(i);
+            flushPanelScale(child, (LayoutParams) child.getLayoutParams());
+        }
+    }
+
+    private void flushPanelScale(View panel, LayoutParams lp) {
+        if (!lp.scaleDispatchPending) {
+            return;
+        }
+        lp.scaleDispatchPending = false;
+
+        final PanelScaleListener[] listeners = mScaleListeners;
+        for (PanelScaleListener listener : listeners) {
+            listener.onPanelScale(panel, lp.scaleOffset);
+            if (listener instanceof PanelAxesScaleListener) {
+                ((PanelAxesScaleListener) listener).onPanelScale(panel, lp.scaleOffsetX, lp.scaleOffsetY);
+            }
+        }
+
+        final float previous = lp.dispatchedOffset;
+        final float offset = lp.scaleOffset;
+        lp.dispatchedOffset = offset;
+        if (previous == offset) {
+            return;
+        }
+        final boolean collapsing = offset > previous;
+        final ThresholdRegistration[] thresholdListeners = mThresholdListeners;
+        for (ThresholdRegistration registration : thresholdListeners) {
+            final float[] thresholds = registration.thresholds;
+            // Walk the thresholds in the direction the panel moved.
+            for (int j = 0; j < thresholds.length; j++) {
+                final float threshold = thresholds[collapsing ? j : thresholds.length - 1 - j];
+                if ((previous < threshold) != (offset < threshold)) {
+                    registration.listener.onPanelThresholdCrossed(panel, threshold, collapsing);
+                }
+            }
+        }
+    }
+
+    void dispatchOnPanelExpanded(View panel) {
+        final PanelScaleListener[] listeners = mScaleListeners;
+        for (PanelScaleListener listener : listeners) {
+            listener.onPanelExpanded(panel);
+        }
+        sendAccessibilityEvent(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED);
+    }
+
+    void dispatchOnPanelCollapsed(View panel) {
+        final PanelScaleListener[] listeners = mScaleListeners;
+        for (PanelScaleListener listener : listeners) {
+            listener.onPanelCollapsed(panel);
+        }
+        sendAccessibilityEvent(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED);
+    }
+
+    void dispatchOnPanelAnchored(View panel) {
+        final PanelScaleListener[] listeners = mScaleListeners;
+        for (PanelScaleListener listener : listeners) {
+            if (listener instanceof PanelAnchorListener) {
+                ((PanelAnchorListener) listener).onPanelAnchored(panel);
+            }
+        }
+        sendAccessibilityEvent(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED);
+    }
+
+    /**
+     * Mark the children below the panels that an opaque panel drawn above them covers completely.
+     * Covered children are skipped when drawing and their invalidations are dropped. Children
+     * that stop being covered are added to the given dirty region, if any, so they are drawn again.
+     */
+    void updateObscuredViews(Rect dirty) {
+        final int childCount = getChildCount();
+        final int width = getWidth();
+        final int height = getHeight();
+        for (int i = 0; i < childCount; i++) {
+            final View child = getChildAt(i);
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (lp.scaleable) {
+                continue;
+            }
+
+            final int left = Math.max(0, child.getLeft());
+            final int top = Math.max(0, child.getTop());
+            final int right = Math.min(width, child.getRight());
+            final int bottom = Math.min(height, child.getBottom());
+
+            boolean covered = false;
+            // Only panels drawn after the child can cover it.
+            for (int j = i + 1; j < childCount && !covered; j++) {
+                final View panel = getChildAt(j);
+                final LayoutParams panelLp = (LayoutParams) panel.getLayoutParams();
+                covered = panelLp.scaleable && panel.getVisibility() == VISIBLE
+                        && ViewCompat.getAlpha(panel) == 1.f && hasOpaqueBackground(panel)
+                        && panelLp.drawnBounds.contains(left, top, right, bottom);
+            }
+
+            if (lp.covered && !covered && dirty != null) {
+                dirty.union(child.getLeft(), child.getTop(), child.getRight(), child.getBottom());
+            }
+            lp.covered = covered;
+        }
+    }
+
+    /**
+     * @return true if the direct child an invalidation comes through, found by the location
+     *         passed to {@link #invalidateChildInParent(int[], Rect)}, is covered.
+     */
+    private boolean isInvalidationCovered(int[] location) {
+        boolean found = false;
+        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+            final View child = getChildAt(i);
+            if (child.getLeft() != location[0] || child.getTop() != location[1]) {
+                continue;
+            }
+            // Several children may share the location, drop the invalidation only if all of
+            // them are covered.
+            if (!((LayoutParams) child.getLayoutParams()).covered) {
+                return false;
+            }
+            found = true;
+        }
+        return found;
+    }
+
+    private static boolean hasOpaqueBackground(View v) {
+        final Drawable bg = v.getBackground();
+        if (bg != null) {
+            return bg.getOpacity() == PixelFormat.OPAQUE;
+        }
+        return false;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mFirstLayout = true;
+        getViewTreeObserver().addOnPreDrawListener(mBehaviorPreDrawListener);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mFirstLayout = true;
+        getViewTreeObserver().removeOnPreDrawListener(mBehaviorPreDrawListener);
+        ChoreographerCompat.getInstance().removeFrameCallback(mPinchFrameCallback);
+        mPinchPanel = null;
+        mPinchDetector.end();
+        finishOffloadedSlides();
+        ChoreographerCompat.getInstance().removeFrameCallback(mScaleDispatchFrameCallback);
+        mScaleDispatchPosted = false;
+        flushPanelScales();
+        if (mDragHelper.getViewDragState() == ViewDragHelperCustom.STATE_SETTLING) {
+            // Nothing advances the settle while detached, finish it where it was heading.
+            mDragHelper.abort();
+        }
+        // Restored settles resume after the first layout once attached again.
+        mResumeSettlesPending = false;
+        removeSettleFrame();
+        disableMovingLayer();
+        flushDeferredLayout();
+    }
+
+    /**
+     * While the panel is dragged, pinched, moved by a nested scroll or settling its position is
+     * applied with offsets and transforms only, so layout requests coming from this layout or its
+     * children are held back and reconciled with a single layout once the gesture ended and the
+     * drag helper went idle. Resizing the expand view through its LayoutParams needs a layout per
+     * frame, so nothing is held back in that case.
+     */
+    @Override
+    public void requestLayout() {
+        if ((mDragHelper != null && mDragHelper.getViewDragState() != ViewDragHelperCustom.STATE_IDLE
+                && isLayoutFreeWhileMoving(mDragHelper.getCapturedView()))
+                || (mPinchPanel != null && isLayoutFreeWhileMoving(mPinchPanel))
+                || (mNestedScrollPanel != null && isLayoutFreeWhileMoving(mNestedScrollPanel))
+                || (mTimelineMoves > 0 && mTimelineLayoutFree)) {
+            mLayoutDeferred = true;
+            return;
+        }
+        super.requestLayout();
+    }
+
+    private boolean isLayoutFreeWhileMoving(View panel) {
+        if (panel == null) {
+            return true;
+        }
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+        return lp.expandView == null || isExpandViewTransformed(panel, lp);
+    }
+
+    /**
+     * @return true if the expand view of the panel is transformed rather than resized while the
+     *         panel moves. Only a panel that is its own expand view is: a nested expand view
+     *         would be drawn clipped to the panel around it, which keeps its laid out size.
+     */
+    private boolean isExpandViewTransformed(View panel, LayoutParams lp) {
+        return mRenderMode == RENDER_MODE_TRANSFORM && lp.expandView == panel;
+    }
+
+    /**
+     * @return The view to draw through a hardware layer while the panel moves, or null when a
+     *         layer would be rebuilt on every frame anyway.
+     */
+    private View getMovingLayerTarget(View panel) {
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+        if (!lp.hardwareLayer) {
+            return null;
+        }
+        if (lp.expandView == null) {
+            return panel;
+        }
+        // A resized expand view invalidates its layer every frame, a scaled one does not.
+        return isExpandViewTransformed(panel, lp) ? lp.expandView : null;
+    }
+
+    private void enableMovingLayer(View panel) {
+        if (mLayerView != null || mLayerSuppressed || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB
+                || !isHardwareAccelerated()) {
+            return;
+        }
+        final View target = getMovingLayerTarget(panel);
+        if (target == null || ViewCompat.getLayerType(target) != ViewCompat.LAYER_TYPE_NONE) {
+            // Leave layers set up by the application alone.
+            return;
+        }
+        ViewCompat.setLayerType(target, ViewCompat.LAYER_TYPE_HARDWARE, null);
+        mLayerView = target;
+        mLayerInvalidated = false;
+        mLayerDirtyFrames = 0;
+    }
+
+    private void disableMovingLayer() {
+        if (mLayerView != null) {
+            ViewCompat.setLayerType(mLayerView, ViewCompat.LAYER_TYPE_NONE, null);
+            mLayerView = null;
+        }
+    }
+
+    @Override
+    public ViewParent invalidateChildInParent(int[] location, Rect dirty) {
+        if (isInvalidationCovered(location)) {
+            // Nobody can see the change, it is drawn once the child is uncovered.
+            return null;
+        }
+        if (mLayerView != null && !mMovingPanel && !mDraggingPanel) {
+            // Content of the layered panel changed by itself, its layer has to be redrawn.
+            mLayerInvalidated = true;
+        }
+        return super.invalidateChildInParent(location, dirty);
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        if (mLayerView != null) {
+            mLayerDirtyFrames = mLayerInvalidated ? mLayerDirtyFrames + 1 : 0;
+            mLayerInvalidated = false;
+            if (mLayerDirtyFrames >= LAYER_DIRTY_FRAME_LIMIT) {
+                // Self updating content, the layer costs more than it saves.
+                disableMovingLayer();
+                mLayerSuppressed = true;
+            }
+        }
+        super.dispatchDraw(canvas);
+    }
+
+    private void flushDeferredLayout() {
+        if (mLayoutDeferred) {
+            mLayoutDeferred = false;
+            super.requestLayout();
+        }
+    }
+
+    /**
+     * Reconcile layouts held back by a pinch or nested scroll that ended, unless the panel went on
+     * settling through the drag helper, which flushes them once it goes idle.
+     */
+    private void flushDeferredLayoutAfterGesture() {
+        if (mDragHelper.getViewDragState() == ViewDragHelperCustom.STATE_IDLE && mTimelineMoves == 0) {
+            flushDeferredLayout();
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        final int widthMode = MeasureSpec.getMode(widthMeasureSpec);
+        final int widthSize = MeasureSpec.getSize(widthMeasureSpec);
         final int heightMode = MeasureSpec.getMode(heightMeasureSpec);
         final int heightSize = MeasureSpec.getSize(heightMeasureSpec);
 
@@ -498,83 +1578,192 @@ public class ScalePanelLayout extends ViewGroup {
 
         final int childCount = getChildCount();
 
-        if (childCount > 1) {
-            Log.e(TAG, "onMeasure: More than two child views are not supported.");
-        }
+        resolveScaleableView();
+        applyRestoredExpandSizes(widthSize, heightSize);
 
-        // First pass. Measure based on child LayoutParams width/height.
         for (int i = 0; i < childCount; i++) {
-            final View child = getChildAt(0);
+            final View child = getChildAt(i);
             final LayoutParams lp = (LayoutParams) child.getLayoutParams();
 
-            lp.scaleable = true;
-            lp.dimWhenOffset = true;
-            mScaleableView = child;
-            mCanScaleChange = true;
-
-            int childWidthSpec;
-            if (lp.width == LayoutParams.WRAP_CONTENT) {
-                childWidthSpec = MeasureSpec.makeMeasureSpec(widthSize, MeasureSpec.AT_MOST);
-            } else if (lp.width == LayoutParams.MATCH_PARENT) {
-                childWidthSpec = MeasureSpec.makeMeasureSpec(widthSize, MeasureSpec.EXACTLY);
-            } else {
-                childWidthSpec = MeasureSpec.makeMeasureSpec(lp.width, MeasureSpec.EXACTLY);
+            if (child.getVisibility() == GONE) {
+                continue;
             }
 
-            int childHeightSpec;
-            if (lp.height == LayoutParams.WRAP_CONTENT) {
-                childHeightSpec = MeasureSpec.makeMeasureSpec(layoutHeight, MeasureSpec.AT_MOST);
-            } else if (lp.height == LayoutParams.MATCH_PARENT) {
-                childHeightSpec = MeasureSpec.makeMeasureSpec(layoutHeight, MeasureSpec.EXACTLY);
+            final int childWidthSpec;
+            final int childHeightSpec;
+            if (lp.scaleable) {
+                lp.dimWhenOffset = true;
+                resolvePanelViews(child);
+                resolvePanelGravity(lp);
+
+                if (lp.width == LayoutParams.WRAP_CONTENT) {
+                    childWidthSpec = MeasureSpec.makeMeasureSpec(widthSize, MeasureSpec.AT_MOST);
+                } else if (lp.width == LayoutParams.MATCH_PARENT) {
+                    childWidthSpec = MeasureSpec.makeMeasureSpec(widthSize, MeasureSpec.EXACTLY);
+                } else {
+                    childWidthSpec = MeasureSpec.makeMeasureSpec(lp.width, MeasureSpec.EXACTLY);
+                }
+
+                if (lp.height == LayoutParams.WRAP_CONTENT) {
+                    childHeightSpec = MeasureSpec.makeMeasureSpec(layoutHeight, MeasureSpec.AT_MOST);
+                } else if (lp.height == LayoutParams.MATCH_PARENT) {
+                    childHeightSpec = MeasureSpec.makeMeasureSpec(layoutHeight, MeasureSpec.EXACTLY);
+                } else {
+                    childHeightSpec = MeasureSpec.makeMeasureSpec(lp.height, MeasureSpec.EXACTLY);
+                }
             } else {
-                childHeightSpec = MeasureSpec.makeMeasureSpec(lp.height, MeasureSpec.EXACTLY);
+                // Content below the panel fills the layout minus padding and its own margins.
+                childWidthSpec = getChildMeasureSpec(widthMeasureSpec,
+                        getPaddingLeft() + getPaddingRight() + lp.leftMargin + lp.rightMargin, lp.width);
+                childHeightSpec = getChildMeasureSpec(heightMeasureSpec,
+                        getPaddingTop() + getPaddingBottom() + lp.topMargin + lp.bottomMargin, lp.height);
             }
 
 //            Log.d("onMeasure", "child width : " + lp.width + ", height : " + lp.height);
+            // View.measure skips children measured with the same specs and not asking for a
+            // layout since.
             child.measure(childWidthSpec, childHeightSpec);
+
+            if (lp.scaleable && lp.expandView != null && lp.expandMinWidth < 0) {
+                measureExpandMinSize(lp);
+            }
         }
 
-        if (mUseExpandView && mExpandMinWidth < 0) {
-            ViewGroup.LayoutParams expandViewlp = mExpandView.getLayoutParams();
-            if (expandViewlp.width == LayoutParams.WRAP_CONTENT) {
-                mExpandMinWidth = mExpandView.getMeasuredWidth();
-            } else if (expandViewlp.width == LayoutParams.MATCH_PARENT) {
-                throw new IllegalStateException("Expand View Width must have an exact value or WRAP_CONTENT");
-            } else {
-                mExpandMinWidth = expandViewlp.width;
+        setMeasuredDimension(widthSize, heightSize);
+    }
+
+    /**
+     * Scaleable panels are the children flagged with layout_scaleable, or the first child if
+     * none of them is.
+     */
+    private void resolveScaleableView() {
+        final int childCount = getChildCount();
+        View scaleableView = null;
+        for (int i = 0; i < childCount; i++) {
+            final View child = getChildAt(i);
+            if (((LayoutParams) child.getLayoutParams()).scaleable) {
+                scaleableView = child;
+                break;
             }
+        }
+        if (scaleableView == null && childCount > 0) {
+            scaleableView = getChildAt(0);
+            ((LayoutParams) scaleableView.getLayoutParams()).scaleable = true;
+        }
+        mScaleableView = scaleableView;
+        mCanScaleChange = scaleableView != null;
+    }
 
-            if (expandViewlp.height == LayoutParams.WRAP_CONTENT) {
-                mExpandMinHeight = mExpandView.getMeasuredHeight();
-            } else if (expandViewlp.height == LayoutParams.MATCH_PARENT) {
-                throw new IllegalStateException("Expand View Width must have an exact value or WRAP_CONTENT");
-            } else {
-                mExpandMinHeight = expandViewlp.height;
+    /**
+     * Write the expand view sizes for restored offsets into their LayoutParams before the
+     * children are measured, so this pass measures them at their restored size. The expand
+     * views asked for a layout when the offsets were restored, nothing is measured twice.
+     */
+    private void applyRestoredExpandSizes(int layoutWidth, int layoutHeight) {
+        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+            final View child = getChildAt(i);
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (!lp.expandSizePending) {
+                continue;
+            }
+            lp.expandSizePending = false;
+            if (!lp.scaleable || lp.expandView == null || isExpandViewTransformed(child, lp)) {
+                continue;
+            }
+            final ViewGroup.LayoutParams params = lp.expandView.getLayoutParams();
+            if (lp.expandMinWidth < 0) {
+                // The collapsed size of a wrap_content expand view is only known once measured.
+                lp.expandView.measure(
+                        getChildMeasureSpec(MeasureSpec.makeMeasureSpec(layoutWidth, MeasureSpec.AT_MOST), 0, params.width),
+                        getChildMeasureSpec(MeasureSpec.makeMeasureSpec(layoutHeight, MeasureSpec.AT_MOST), 0, params.height));
+                measureExpandMinSize(lp);
             }
+            params.width = computeExpandWidth(lp, layoutWidth);
+            params.height = computeExpandHeight(lp, layoutHeight);
         }
+    }
 
-        setMeasuredDimension(widthSize, heightSize);
+    /**
+     * Resolve the gravity and collapsed size of a panel, falling back to the values set on the
+     * layout for anything the panel does not set itself.
+     */
+    private void resolvePanelGravity(LayoutParams lp) {
+        int gravity = lp.gravity != -1 ? lp.gravity : mGravity;
+        if ((gravity & Gravity.VERTICAL_GRAVITY_MASK) == 0) {
+            // Nothing set, e.g. a layout or panel created in code: top left, as before panels
+            // had their own gravity.
+            gravity |= Gravity.TOP;
+        }
+        final int majorGravity = gravity & Gravity.VERTICAL_GRAVITY_MASK;
+        if (majorGravity != Gravity.TOP && majorGravity != Gravity.BOTTOM) {
+            throw new IllegalStateException("layout_gravity must be set to either top or bottom");
+        }
+        final int absoluteGravity = GravityCompat.getAbsoluteGravity(gravity,
+                ViewCompat.getLayoutDirection(this));
+        lp.gravityBottom = majorGravity == Gravity.BOTTOM;
+        lp.gravityRight = (absoluteGravity & Gravity.HORIZONTAL_GRAVITY_MASK) == Gravity.RIGHT;
+        lp.panelWidth = lp.collapsedWidth != -1 ? lp.collapsedWidth : mPanelWidth;
+        lp.panelHeight = lp.collapsedHeight != -1 ? lp.collapsedHeight : mPanelHeight;
+    }
+
+    private static void measureExpandMinSize(LayoutParams lp) {
+        final View expandView = lp.expandView;
+        ViewGroup.LayoutParams expandViewlp = expandView.getLayoutParams();
+        if (expandViewlp.width == LayoutParams.WRAP_CONTENT) {
+            lp.expandMinWidth = expandView.getMeasuredWidth();
+        } else if (expandViewlp.width == LayoutParams.MATCH_PARENT) {
+            throw new IllegalStateException("Expand View Width must have an exact value or WRAP_CONTENT");
+        } else {
+            lp.expandMinWidth = expandViewlp.width;
+        }
+
+        if (expandViewlp.height == LayoutParams.WRAP_CONTENT) {
+            lp.expandMinHeight = expandView.getMeasuredHeight();
+        } else if (expandViewlp.height == LayoutParams.MATCH_PARENT) {
+            throw new IllegalStateException("Expand View Width must have an exact value or WRAP_CONTENT");
+        } else {
+            lp.expandMinHeight = expandViewlp.height;
+        }
     }
 
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
-        final int paddingLeft = getPaddingLeft();
         final int paddingTop = getPaddingTop();
-        final int slidingTop = getSlidingTop(); // collapse : getMeasuredHeight() - getPaddingBottom() - (mScaleableView.getMeasuredHeight());
-
-//        Log.d("onLayout", String.format("paddingLeft : %d, paddingTop : %d, slidingTop : %d", paddingLeft, paddingTop, slidingTop));
 
         final int childCount = getChildCount();
 
-        if (mFirstLayout) {
-            switch (mScaleState) {
-                case EXPANDED:
-                    mScaleOffset = mCanScaleChange ? 0.f : 1.f;
-                    break;
-                default:
-                    mScaleOffset = 1.f;
-                    break;
+        final boolean firstLayout = mFirstLayout;
+        for (int i = 0; i < childCount; i++) {
+            final View child = getChildAt(i);
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (!lp.scaleable) {
+                continue;
+            }
+
+            lp.scaleRangeY = getMeasuredHeight() - lp.panelHeight;
+            lp.scaleRangeX = getMeasuredWidth() - lp.panelWidth;
+
+            // Offsets are derived from the state once. Later layouts, for a new size or after
+            // being attached again, keep them and only place the panel for the new ranges.
+            if (!lp.laidOut) {
+                if (!mCanScaleChange) {
+                    lp.setScaleOffsets(1.f, 1.f);
+                } else if (!lp.offsetsRestored) {
+                    final float offset;
+                    if (lp.scaleState == ScaleState.COLLAPSED) {
+                        offset = 1.f;
+                    } else if (lp.scaleState == ScaleState.ANCHORED && lp.anchors.length > 2) {
+                        // Only the state is known, rest at the first anchor between the ends.
+                        offset = lp.anchors[1];
+                    } else {
+                        offset = lp.scaleState == ScaleState.EXPANDED ? 0.f : 1.f;
+                    }
+                    lp.setScaleOffsets(offset, offset);
+                }
+                lp.dispatchedOffset = lp.scaleOffset;
+                lp.laidOut = true;
             }
+            lp.offsetsRestored = false;
         }
 
         for (int i = 0; i < childCount; i++) {
@@ -588,25 +1777,17 @@ public class ScalePanelLayout extends ViewGroup {
             final int childHeight = child.getMeasuredHeight();
             final int childWidth = child.getMeasuredWidth();
 
-            if (lp.scaleable) {
-                mScaleRangeY = getMeasuredHeight() - mPanelHeight;
-                mScaleRangeX = getMeasuredWidth() - mPanelWidth;
-            }
-
 //            Log.d("onLayout", String.format("mScaleRangeY : %d, childHeight : %d, mPanelHeight : %d", mScaleRangeY, childHeight, mPanelHeight));
 
             final int childTop;
             final int childLeft;
-            if (mIsGravityBottom) {
-                childTop = lp.scaleable ? (int) (mScaleRangeY * mScaleOffset) : paddingTop;
-            } else {
-                childTop = lp.scaleable ? slidingTop - (int) (mScaleRangeY * mScaleOffset) : paddingTop + mPanelHeight;
-            }
-
-            if (mIsGravityRight) {
-                childLeft = getMeasuredWidth() - getPaddingRight() - child.getMeasuredWidth() - lp.rightMargin;
+            if (lp.scaleable) {
+                childTop = computeScaleableTop(lp, childHeight);
+                childLeft = computeScaleableLeft(lp, childWidth);
             } else {
-                childLeft = getPaddingLeft() + lp.leftMargin;
+                // Content fills the layout below the panels, which clip it where they cover it.
+                childTop = paddingTop + lp.topMargin;
+                childLeft = computeChildLeft(lp, childWidth, mIsGravityRight);
             }
 
             final int childBottom = childTop + childHeight;
@@ -615,26 +1796,114 @@ public class ScalePanelLayout extends ViewGroup {
 //            Log.d("onLayout", String.format("childLeft : %d, childTop : %d, childRight : %d, childBottom : %d", childLeft, childTop, childRight, childBottom));
 
             child.layout(childLeft, childTop, childRight, childBottom);
-        }
 
-        if (mFirstLayout) {
-            updateObscuredViewVisibility();
+            if (lp.scaleable && isExpandViewTransformed(child, lp)) {
+                // The panel was just placed for its laid out size, keep the visual size in sync.
+                applyExpandViewTransform(child, lp, computeExpandWidth(lp), computeExpandHeight(lp));
+            }
+            if (lp.scaleable) {
+                getPanelDrawnBounds(child, lp.drawnBounds);
+                updateDragHandleRects(child, lp);
+                publishSnapshot(lp);
+                lp.scrimAlpha = computeScrimAlpha(lp.scaleOffset);
+            }
+        }
+        mDirtyRect.setEmpty();
+        updateObscuredViews(mDirtyRect);
+        if (!mDirtyRect.isEmpty()) {
+            invalidate(mDirtyRect.left, mDirtyRect.top, mDirtyRect.right, mDirtyRect.bottom);
         }
 
         mFirstLayout = false;
+
+        if (firstLayout && hasRestoredSettles()) {
+            // Not from within layout, the settles start moving panels on the next frame.
+            mResumeSettlesPending = true;
+            postSettleFrame();
+        }
+    }
+
+    /**
+     * Top of a scaleable child for its current offset, given its height.
+     */
+    private int computeScaleableTop(LayoutParams lp, int childHeight) {
+        if (lp.gravityBottom) {
+            return (int) (lp.scaleRangeY * lp.scaleOffsetY);
+        }
+        final int slidingTop = getMeasuredHeight() - getPaddingBottom() - childHeight;
+        return slidingTop - (int) (lp.scaleRangeY * lp.scaleOffsetY);
+    }
+
+    /**
+     * Left of a scaleable child for its current offset, given its width. Panels that do not
+     * scale horizontally stay where their gravity puts them.
+     */
+    private int computeScaleableLeft(LayoutParams lp, int childWidth) {
+        if (!lp.scalesHorizontally()) {
+            return computeChildLeft(lp, childWidth, lp.gravityRight);
+        }
+        if (lp.gravityRight) {
+            return getPaddingLeft() + (int) (lp.scaleRangeX * lp.scaleOffsetX);
+        }
+        final int slidingLeft = getMeasuredWidth() - getPaddingRight() - childWidth;
+        return slidingLeft - (int) (lp.scaleRangeX * lp.scaleOffsetX);
     }
 
+    /**
+     * Drag position of a panel along the horizontal axis for the given offset. Right gravity
+     * panels are positioned by their left edge, left gravity panels by how far they have grown.
+     */
+    private int getHorizontalPosition(LayoutParams lp, float offsetX) {
+        return lp.gravityRight
+                ? getPaddingLeft() + Math.round(offsetX * lp.scaleRangeX)
+                : getPaddingLeft() + Math.round((1.f - offsetX) * lp.scaleRangeX);
+    }
 
-    @Override
-    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
-        super.onSizeChanged(w, h, oldw, oldh);
-        // Recalculate sliding panes and their details
-//        Log.e("debug", "onSizeChanged");
-        if (h != oldh) {
-            mFirstLayout = true;
+    /**
+     * Drag position of a panel along the vertical axis for the given offset. Bottom gravity
+     * panels are positioned by their top edge, top gravity panels by how far they have grown.
+     */
+    private int getVerticalPosition(LayoutParams lp, float offsetY) {
+        return lp.gravityBottom
+                ? getPaddingTop() + Math.round(offsetY * lp.scaleRangeY)
+                : getPaddingTop() + Math.round((1.f - offsetY) * lp.scaleRangeY);
+    }
+
+    /**
+     * Offset of a panel along the horizontal axis for the given drag position, the inverse of
+     * {@link #getHorizontalPosition}. Panels that do not scale horizontally keep their offset.
+     */
+    private float getHorizontalOffset(LayoutParams lp, int x) {
+        if (!lp.scalesHorizontally() || lp.scaleRangeX <= 0) {
+            return lp.scaleOffsetX;
+        }
+        final float position = (float) (x - getPaddingLeft()) / lp.scaleRangeX;
+        return lp.gravityRight ? position : 1.0f - position;
+    }
+
+    /**
+     * Offset of a panel along the vertical axis for the given drag position, the inverse of
+     * {@link #getVerticalPosition}. Panels that do not scale vertically keep their offset.
+     */
+    private float getVerticalOffset(LayoutParams lp, int y) {
+        if (!lp.scalesVertically() || lp.scaleRangeY <= 0) {
+            return lp.scaleOffsetY;
+        }
+        final float position = (float) (y - getPaddingTop()) / lp.scaleRangeY;
+        return lp.gravityBottom ? position : 1.0f - position;
+    }
+
+    /**
+     * Left of a child given its width, honoring the horizontal gravity.
+     */
+    private int computeChildLeft(LayoutParams lp, int childWidth, boolean gravityRight) {
+        if (gravityRight) {
+            return getMeasuredWidth() - getPaddingRight() - childWidth - lp.rightMargin;
         }
+        return getPaddingLeft() + lp.leftMargin;
     }
 
+
     /**
      * Set sliding enabled flag
      * @param enabled flag value
@@ -662,11 +1931,22 @@ public class ScalePanelLayout extends ViewGroup {
     public boolean onInterceptTouchEvent(MotionEvent ev) {
         final int action = MotionEventCompat.getActionMasked(ev);
 
+        if (mTimelineMoves > 0) {
+            // A running timeline moves the panels, none of them can be captured until it ends.
+            mDragHelper.cancel();
+            return false;
+        }
+
         if (!mCanScaleChange || !mIsScaleEnabled || (mIsUnableToDrag && action != MotionEvent.ACTION_DOWN)) {
             mDragHelper.cancel();
             return super.onInterceptTouchEvent(ev);
         }
 
+        if (mPinchPanel != null
+                || (action == MotionEventCompat.ACTION_POINTER_DOWN && startPinch(ev))) {
+            return true;
+        }
+
         if (action == MotionEvent.ACTION_CANCEL || action == MotionEvent.ACTION_UP) {
             mDragHelper.cancel();
             return false;
@@ -681,6 +1961,8 @@ public class ScalePanelLayout extends ViewGroup {
                 mIsUnableToDrag = false;
                 mInitialMotionX = x;
                 mInitialMotionY = y;
+                // Stop programmatic slides where they are, so the panel can be grabbed.
+                finishOffloadedSlides();
                 if (isDragViewUnder((int) x, (int) y) && !mIsUsingDragViewTouchEvents) {
                     interceptTap = true;
                 }
@@ -688,6 +1970,12 @@ public class ScalePanelLayout extends ViewGroup {
             }
 
             case MotionEvent.ACTION_MOVE: {
+                if (mNestedScrollPanel != null) {
+                    // The first finger scrolls content and moves its panel through nested
+                    // scrolling. The drag helper and pinches skip that panel, so skip the slop
+                    // checks and let the drag helper look for another finger on another panel.
+                    break;
+                }
                 final float adx = Math.abs(x - mInitialMotionX);
                 final float ady = Math.abs(y - mInitialMotionY);
                 final int dragSlop = mDragHelper.getTouchSlop();
@@ -716,7 +2004,9 @@ public class ScalePanelLayout extends ViewGroup {
             }
         }
 
+        mMovingPanel = true;
         final boolean interceptForDrag = mDragHelper.shouldInterceptTouchEvent(ev);
+        mMovingPanel = false;
 
         return interceptForDrag || interceptTap;
     }
@@ -727,6 +2017,13 @@ public class ScalePanelLayout extends ViewGroup {
             return super.onTouchEvent(ev);
         }
 
+        if (mPinchPanel != null
+                || (MotionEventCompat.getActionMasked(ev) == MotionEventCompat.ACTION_POINTER_DOWN
+                        && startPinch(ev))) {
+            onPinchTouchEvent(ev);
+            return true;
+        }
+
         final float x = ev.getX();
         final float y = ev.getY();
 
@@ -735,7 +2032,9 @@ public class ScalePanelLayout extends ViewGroup {
             return super.onTouchEvent(ev);
         }
 
+        mMovingPanel = true;
         mDragHelper.processTouchEvent(ev);
+        mMovingPanel = false;
 
         final int action = ev.getAction();
         boolean wantTouchEvents = true;
@@ -747,54 +2046,328 @@ public class ScalePanelLayout extends ViewGroup {
                 break;
             }
 
-            case MotionEvent.ACTION_UP: {
-                final float dx = x - mInitialMotionX;
-                final float dy = y - mInitialMotionY;
-                final int slop = mDragHelper.getTouchSlop();
-                View dragView = mDragView != null ? mDragView : mScaleableView;
-                if (dx * dx + dy * dy < slop * slop &&
-                        isDragViewUnder((int) x, (int) y)) {
-                    dragView.playSoundEffect(SoundEffectConstants.CLICK);
-                    if (!isExpanded()) {
-                        expandPane(0.f);
-                    } else {
-                        collapsePane();
-                    }
-                    break;
-                }
-                break;
-            }
+            case MotionEvent.ACTION_UP: {
+                final float dx = x - mInitialMotionX;
+                final float dy = y - mInitialMotionY;
+                final int slop = mDragHelper.getTouchSlop();
+                final View panel = findDragPanelUnder((int) x, (int) y);
+                if (dx * dx + dy * dy < slop * slop && panel != null) {
+                    final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+                    View dragView = lp.dragHandleCount > 0 ? lp.dragHandles[0] : panel;
+                    dragView.playSoundEffect(SoundEffectConstants.CLICK);
+                    if (!isExpanded(panel)) {
+                        expandPane(panel, 0.f);
+                    } else {
+                        collapsePane(panel);
+                    }
+                    break;
+                }
+                break;
+            }
+        }
+
+        return wantTouchEvents;
+    }
+
+    /**
+     * Start a pinch if pinching is enabled and both pointers of the event are on the same
+     * scaleable panel. A drag in progress is given up for the pinch.
+     *
+     * @return true if the pinch started
+     */
+    private boolean startPinch(MotionEvent ev) {
+        if (!mPinchEnabled || MotionEventCompat.getPointerCount(ev) != 2) {
+            return false;
+        }
+        final View panel = findScaleablePanelUnder(
+                (int) MotionEventCompat.getX(ev, 0), (int) MotionEventCompat.getY(ev, 0));
+        if (panel == null || panel != findScaleablePanelUnder(
+                (int) MotionEventCompat.getX(ev, 1), (int) MotionEventCompat.getY(ev, 1))) {
+            return false;
+        }
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+        if (panel == mNestedScrollPanel || getPinchRange(lp) <= 0 || !mPinchDetector.begin(ev)) {
+            return false;
+        }
+
+        if (mDragHelper.getViewDragState() != ViewDragHelperCustom.STATE_IDLE) {
+            mDragHelper.abort();
+        } else {
+            mDragHelper.cancel();
+        }
+        mPinchPanel = panel;
+        mPinchStartOffsetX = lp.scaleOffsetX;
+        mPinchStartOffsetY = lp.scaleOffsetY;
+        mPinchOffsetDelta = 0;
+        enableMovingLayer(panel);
+        return true;
+    }
+
+    private void onPinchTouchEvent(MotionEvent ev) {
+        switch (MotionEventCompat.getActionMasked(ev)) {
+            case MotionEvent.ACTION_MOVE: {
+                if (!mPinchDetector.update(ev)) {
+                    break;
+                }
+                final LayoutParams lp = (LayoutParams) mPinchPanel.getLayoutParams();
+                // The span grows as the panel expands, i.e. as its offset goes to 0.
+                final float delta = -mPinchDetector.getSpanDelta() / getPinchRange(lp);
+                if (delta != mPinchOffsetDelta) {
+                    mPinchOffsetDelta = delta;
+                    ChoreographerCompat.getInstance().removeFrameCallback(mPinchFrameCallback);
+                    ChoreographerCompat.getInstance().postFrameCallback(mPinchFrameCallback);
+                }
+                break;
+            }
+
+            case MotionEventCompat.ACTION_POINTER_UP: {
+                final int pointerId = MotionEventCompat.getPointerId(ev, MotionEventCompat.getActionIndex(ev));
+                if (mPinchDetector.isTracking(pointerId)) {
+                    endPinch(mPinchDetector.getSpanVelocity());
+                }
+                break;
+            }
+
+            case MotionEvent.ACTION_UP:
+                endPinch(mPinchDetector.getSpanVelocity());
+                break;
+
+            case MotionEvent.ACTION_CANCEL:
+                endPinch(0);
+                break;
+        }
+    }
+
+    /**
+     * Move the pinched panel to the offset the pinch asks for, once per frame.
+     */
+    private void applyPinchOffset() {
+        final View panel = mPinchPanel;
+        if (panel == null) {
+            return;
+        }
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+        // Positions are clamped to the range of the panel on the way.
+        movePanelTo(panel,
+                getHorizontalPosition(lp, mPinchStartOffsetX + mPinchOffsetDelta),
+                getVerticalPosition(lp, mPinchStartOffsetY + mPinchOffsetDelta));
+    }
+
+    /**
+     * @return How far the span has to grow to take the panel from collapsed to expanded
+     */
+    private static int getPinchRange(LayoutParams lp) {
+        return Math.max(lp.scalesHorizontally() ? lp.scaleRangeX : 0,
+                lp.scalesVertically() ? lp.scaleRangeY : 0);
+    }
+
+    /**
+     * Finish the pinch and snap the panel to one of its anchors. A pinch faster than a fling
+     * moves the panel at least to the next anchor the way it was heading.
+     *
+     * @param spanVelocity How fast the span grew at release, in pixels per second
+     */
+    private void endPinch(float spanVelocity) {
+        final View panel = mPinchPanel;
+        ChoreographerCompat.getInstance().removeFrameCallback(mPinchFrameCallback);
+        applyPinchOffset();
+        mPinchPanel = null;
+        mPinchDetector.end();
+        disableMovingLayer();
+        mLayerSuppressed = false;
+
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+        // The span grows as the offsets shrink.
+        final float offsetVelocity = Math.abs(spanVelocity) > mDragHelper.getMinVelocity()
+                ? -spanVelocity / getPinchRange(lp) : 0;
+        if (!smoothSlideTo(panel,
+                PanelAnchors.computeSnapOffset(lp.anchors, lp.scaleOffsetX, offsetVelocity),
+                PanelAnchors.computeSnapOffset(lp.anchors, lp.scaleOffsetY, offsetVelocity), 0)) {
+            // Already at rest.
+            dispatchPanelRestState(panel, lp);
+        }
+        flushDeferredLayoutAfterGesture();
+    }
+
+    /**
+     * @return The topmost visible scaleable panel drawn under the given point, or null
+     */
+    private View findScaleablePanelUnder(int x, int y) {
+        for (int i = getChildCount() - 1; i >= 0; i--) {
+            final View child = getChildAt(i);
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (lp.scaleable && child.getVisibility() == VISIBLE && lp.drawnBounds.contains(x, y)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    // 터치 좌표가 dragView 안에서 발생했는지 확인하는 함수.
+    private boolean isDragViewUnder(int x, int y) {
+        final View panel = findDragPanelUnder(x, y);
+        return panel != null && panel != mNestedScrollPanel;
+    }
+
+    /**
+     * @return The topmost visible panel with a drag handle under the given point, or null.
+     *         Points are in this layout's coordinates and tested against the cached handle
+     *         rects, so nothing is allocated.
+     */
+    private View findDragPanelUnder(int x, int y) {
+        for (int i = getChildCount() - 1; i >= 0; i--) {
+            final View child = getChildAt(i);
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (!lp.scaleable || child.getVisibility() != VISIBLE) {
+                continue;
+            }
+            if (lp.dragHandleCount == 0) {
+                if (lp.drawnBounds.contains(x, y)) {
+                    return child;
+                }
+                continue;
+            }
+            for (int j = 0; j < lp.dragHandleCount; j++) {
+                if (lp.dragHandles[j].getVisibility() == VISIBLE
+                        && lp.dragHandleRects[j].contains(x, y)) {
+                    return child;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean expandPane(View pane, int initialVelocity, float mSlideOffset) {
+        if (mFirstLayout || slideTo(pane, mSlideOffset, initialVelocity)) {
+            return true;
+        }
+        return false;
+    }
+
+    private boolean collapsePane(View pane, int initialVelocity) {
+        if (mFirstLayout || slideTo(pane, 1.f, initialVelocity)) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Slide a panel for {@link #expandPane()} or {@link #collapsePane()}, as a property animation
+     * when it can be, otherwise on the drag helper.
+     */
+    private boolean slideTo(View panel, float slideOffset, int velocity) {
+        if (velocity == 0 && canOffloadSlide(panel)) {
+            return offloadSlideTo(panel, slideOffset);
+        }
+        return smoothSlideTo(panel, slideOffset, velocity);
+    }
+
+    private boolean canOffloadSlide(View panel) {
+        if (!mOffloadAnimations || Build.VERSION.SDK_INT < RENDER_THREAD_ANIMATION_SDK
+                || !isHardwareAccelerated() || !mCanScaleChange || mTimelineMoves > 0) {
+            return false;
+        }
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+        if (lp.expandView != null || lp.snapshot != null || mBehaviorCount > 0
+                || hasOtherVisibleChild(panel)) {
+            // Something besides the panel's position follows the offset on every frame: its
+            // expand view, snapshot or behaviors, or the covered state and scrim of the other
+            // children, which would keep showing where the slide started.
+            return false;
+        }
+        // A panel the drag helper holds keeps being settled by it, retargeting from its velocity.
+        return mDragHelper.getViewDragState() == ViewDragHelperCustom.STATE_IDLE
+                || mDragHelper.getCapturedView() != panel;
+    }
+
+    private boolean hasOtherVisibleChild(View panel) {
+        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+            final View child = getChildAt(i);
+            if (child != panel && child.getVisibility() == VISIBLE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Animate the panel's translation towards the offset. Its layout position and offset stay
+     * where the slide started until {@link #finishOffloadedSlide} applies where it ended.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private boolean offloadSlideTo(final View panel, float slideOffset) {
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+        // Continue from where a running slide got to.
+        cancelOffloadedSlide(panel);
+        final int x = getHorizontalPosition(lp, lp.scaleOffsetX);
+        final int y = getVerticalPosition(lp, lp.scaleOffsetY);
+        final int dx = lp.scalesHorizontally() ? getHorizontalPosition(lp, slideOffset) - x : 0;
+        final int dy = lp.scalesVertically() ? getVerticalPosition(lp, slideOffset) - y : 0;
+        if (dx == 0 && dy == 0) {
+            return false;
         }
 
-        return wantTouchEvents;
+        lp.offloadedSlide = true;
+        lp.settleTargetX = lp.scalesHorizontally() ? slideOffset : lp.scaleOffsetX;
+        lp.settleTargetY = lp.scalesVertically() ? slideOffset : lp.scaleOffsetY;
+        panel.animate()
+                .translationX(dx)
+                .translationY(dy)
+                .setDuration(OFFLOADED_SLIDE_DURATION)
+                .setInterpolator(sOffloadedSlideInterpolator)
+                .withLayer()
+                .setListener(new AnimatorListenerAdapter() {
+                    @Override
+                    public void onAnimationEnd(Animator animation) {
+                        // Called after onAnimationCancel as well.
+                        finishOffloadedSlide(panel);
+                    }
+                });
+        return true;
     }
 
-    // 터치 좌표가 dragView 안에서 발생했는지 확인하는 함수.
-    private boolean isDragViewUnder(int x, int y) {
-        View dragView = mDragView != null ? mDragView : mScaleableView;
-        if (dragView == null) return false;
-        int[] viewLocation = new int[2];
-        dragView.getLocationOnScreen(viewLocation);
-        int[] parentLocation = new int[2];
-        this.getLocationOnScreen(parentLocation);
-        int screenX = parentLocation[0] + x;
-        int screenY = parentLocation[1] + y;
-        return screenX >= viewLocation[0] && screenX < viewLocation[0] + dragView.getWidth() &&
-                screenY >= viewLocation[1] && screenY < viewLocation[1] + dragView.getHeight();
+    /**
+     * Move the panel to where its slide drew it, with the translation folded back into its
+     * position and offset, and report where it rests.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
+    private void finishOffloadedSlide(View panel) {
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+        if (!lp.offloadedSlide) {
+            return;
+        }
+        lp.offloadedSlide = false;
+        panel.animate().setListener(null);
+
+        final int dx = Math.round(ViewCompat.getTranslationX(panel));
+        final int dy = Math.round(ViewCompat.getTranslationY(panel));
+        ViewCompat.setTranslationX(panel, 0);
+        ViewCompat.setTranslationY(panel, 0);
+        mMovingPanel = true;
+        movePanelTo(panel, getHorizontalPosition(lp, lp.scaleOffsetX) + dx,
+                getVerticalPosition(lp, lp.scaleOffsetY) + dy);
+        mMovingPanel = false;
+        dispatchPanelRestState(panel, lp);
     }
 
-    private boolean expandPane(View pane, int initialVelocity, float mSlideOffset) {
-        if (mFirstLayout || smoothSlideTo(mSlideOffset, initialVelocity)) {
-            return true;
+    /**
+     * Stop the programmatic slide of the panel where it is, if one is running.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
+    private void cancelOffloadedSlide(View panel) {
+        if (((LayoutParams) panel.getLayoutParams()).offloadedSlide) {
+            panel.animate().cancel();
+            finishOffloadedSlide(panel);
         }
-        return false;
     }
 
-    private boolean collapsePane(View pane, int initialVelocity) {
-        if (mFirstLayout || smoothSlideTo(1.f, initialVelocity)) {
-            return true;
+    /**
+     * Stop all running programmatic slides where they are.
+     */
+    private void finishOffloadedSlides() {
+        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+            cancelOffloadedSlide(getChildAt(i));
         }
-        return false;
     }
 
     private int getSlidingTop() {
@@ -814,7 +2387,20 @@ public class ScalePanelLayout extends ViewGroup {
      * @return true if the pane was scaleable and is now collapsed/in the process of collapsing
      */
     public boolean collapsePane() {
-        return collapsePane(mScaleableView, 0);
+        return collapsePane(mScaleableView);
+    }
+
+    /**
+     * Collapse the given panel. If first layout has already completed this will animate.
+     *
+     * @param panel A scaleable child of this layout
+     * @return true if the pane was scaleable and is now collapsed/in the process of collapsing
+     */
+    public boolean collapsePane(View panel) {
+        if (!isScaleablePanel(panel)) {
+            return false;
+        }
+        return collapsePane(panel, 0);
     }
 
     /**
@@ -834,10 +2420,30 @@ public class ScalePanelLayout extends ViewGroup {
      * @return true if the pane was scaleable and is now expanded/in the process of expading
      */
     public boolean expandPane(float mSlideOffset) {
-        if (!isPaneVisible()) {
-            showPane();
+        return expandPane(mScaleableView, mSlideOffset);
+    }
+
+    /**
+     * Partially expand the given panel up to a specific offset
+     *
+     * @param panel A scaleable child of this layout
+     * @param mSlideOffset Value between 0 and 1, where 0 is completely expanded.
+     * @return true if the pane was scaleable and is now expanded/in the process of expading
+     */
+    public boolean expandPane(View panel, float mSlideOffset) {
+        if (!isScaleablePanel(panel)) {
+            return false;
+        }
+        if (panel.getVisibility() != View.VISIBLE) {
+            panel.setVisibility(View.VISIBLE);
+            requestLayout();
         }
-        return expandPane(mScaleableView, 0, mSlideOffset);
+        return expandPane(panel, 0, mSlideOffset);
+    }
+
+    boolean isScaleablePanel(View panel) {
+        return panel != null && panel.getParent() == this
+                && ((LayoutParams) panel.getLayoutParams()).scaleable;
     }
 
     /**
@@ -846,7 +2452,18 @@ public class ScalePanelLayout extends ViewGroup {
      * @return true if sliding panels are completely expanded
      */
     public boolean isExpanded() {
-        return mScaleState == ScaleState.EXPANDED;
+        return isExpanded(mScaleableView);
+    }
+
+    /**
+     * Check if the given panel is completely expanded.
+     *
+     * @param panel A scaleable child of this layout
+     * @return true if the panel is completely expanded
+     */
+    public boolean isExpanded(View panel) {
+        return isScaleablePanel(panel)
+                && ((LayoutParams) panel.getLayoutParams()).scaleState == ScaleState.EXPANDED;
     }
 
     /**
@@ -860,19 +2477,14 @@ public class ScalePanelLayout extends ViewGroup {
     }
 
     public boolean isPaneVisible() {
-        if (getChildCount() < 2) {
-            return false;
-        }
-        View slidingPane = getChildAt(1);
-        return slidingPane.getVisibility() == View.VISIBLE;
+        return mScaleableView != null && mScaleableView.getVisibility() == View.VISIBLE;
     }
 
     public void showPane() {
-        if (getChildCount() < 2) {
+        if (mScaleableView == null) {
             return;
         }
-        View slidingPane = getChildAt(1);
-        slidingPane.setVisibility(View.VISIBLE);
+        mScaleableView.setVisibility(View.VISIBLE);
         requestLayout();
     }
 
@@ -884,155 +2496,610 @@ public class ScalePanelLayout extends ViewGroup {
         requestLayout();
     }
 
-    private void onPanelDragged(int newTop) {
-        final int topBound = 0;//getSlidingTop();
-        if (newTop == 1) {
-            newTop = 0;
+    private void onPanelDragged(View panel, LayoutParams lp, int newX, int newY) {
+        final float offsetX = getHorizontalOffset(lp, newX);
+        final float offsetY = getVerticalOffset(lp, newY);
+//        Log.d("onPanelDragged", "mScaleOffset : " + mScaleOffset + ", newTop : " + newTop + ", topBound : " + topBound);
+        lp.setScaleOffsets(offsetX, offsetY);
+        dispatchOnPanelScale(panel);
+    }
+
+    private void onExpandViewResize(View panel, LayoutParams lp) {
+        final View expandView = lp.expandView;
+        if (expandView != null) {
+            final int width = computeExpandWidth(lp);
+            final int height = computeExpandHeight(lp);
+
+            if (isExpandViewTransformed(panel, lp)) {
+                applyExpandViewTransform(panel, lp, width, height);
+                return;
+            }
+
+            ViewGroup.LayoutParams params = expandView.getLayoutParams();
+            params.width = width;
+            params.height = height;
+
+//            Log.d("onExpandViewResize", String.format("width : %d, height : %d, mScaleOffset : %f, widthSize : %d, mExpandMinWidth : %d"
+//                    , params.width, params.height, mScaleOffset, widthSize, mExpandMinWidth));
+
+            expandView.setLayoutParams(params);
+        }
+
+    }
+
+    private int computeExpandWidth(LayoutParams lp) {
+        return computeExpandWidth(lp, getMeasuredWidth());
+    }
+
+    private int computeExpandHeight(LayoutParams lp) {
+        return computeExpandHeight(lp, getMeasuredHeight());
+    }
+
+    private static int computeExpandWidth(LayoutParams lp, int layoutWidth) {
+        return (int) ((1.0f - lp.scaleOffsetX) * (layoutWidth - lp.expandMinWidth)) + lp.expandMinWidth;
+    }
+
+    private static int computeExpandHeight(LayoutParams lp, int layoutHeight) {
+        return (int) ((1.0f - lp.scaleOffsetY) * (layoutHeight - lp.expandMinHeight)) + lp.expandMinHeight;
+    }
+
+    /**
+     * Draw a panel that is its own expand view at the given size without touching its
+     * LayoutParams. The panel keeps its laid out bounds and is scaled from its top left corner,
+     * then translated to where a layout pass would have placed it.
+     */
+    private void applyExpandViewTransform(View panel, LayoutParams lp, int width, int height) {
+        final int laidWidth = panel.getWidth();
+        final int laidHeight = panel.getHeight();
+        if (laidWidth == 0 || laidHeight == 0) {
+            // Not laid out yet, first layout will take care of it.
+            return;
+        }
+
+        lp.expandLayoutPending = width != laidWidth || height != laidHeight;
+
+        ViewCompat.setPivotX(panel, 0);
+        ViewCompat.setPivotY(panel, 0);
+        ViewCompat.setTranslationX(panel, computeScaleableLeft(lp, width) - panel.getLeft());
+        ViewCompat.setTranslationY(panel, computeScaleableTop(lp, height) - panel.getTop());
+        ViewCompat.setScaleX(panel, (float) width / laidWidth);
+        ViewCompat.setScaleY(panel, (float) height / laidHeight);
+    }
+
+    private static void resetExpandViewTransform(View expandView) {
+        ViewCompat.setScaleX(expandView, 1.f);
+        ViewCompat.setScaleY(expandView, 1.f);
+        ViewCompat.setTranslationX(expandView, 0);
+        ViewCompat.setTranslationY(expandView, 0);
+    }
+
+    /**
+     * Write the size the expand view is currently drawn at into its LayoutParams. Called once
+     * when the panel comes to rest in {@link #RENDER_MODE_TRANSFORM}; the following layout pass
+     * brings the transform back to identity.
+     */
+    private void commitExpandViewLayout(LayoutParams lp) {
+        if (!lp.expandLayoutPending) {
+            return;
+        }
+        lp.expandLayoutPending = false;
+
+        ViewGroup.LayoutParams params = lp.expandView.getLayoutParams();
+        params.width = computeExpandWidth(lp);
+        params.height = computeExpandHeight(lp);
+        lp.expandView.setLayoutParams(params);
+    }
+
+    /**
+     * Invalidate what a panel move changed on screen: the bounds the panel was drawn at, the
+     * bounds it is drawn at now, and the covered children when the scrim over them changes.
+     */
+    private void invalidatePanelMove(View panel, LayoutParams lp) {
+        final Rect dirty = mDirtyRect;
+        dirty.set(lp.drawnBounds);
+        getPanelDrawnBounds(panel, lp.drawnBounds);
+        dirty.union(lp.drawnBounds);
+        updateDragHandleRects(panel, lp);
+
+        final int scrimAlpha = computeScrimAlpha(lp.scaleOffset);
+        if (scrimAlpha != lp.scrimAlpha) {
+            lp.scrimAlpha = scrimAlpha;
+            unionCoveredContentBounds(dirty);
+        }
+        updateObscuredViews(dirty);
+
+        if (dirty.isEmpty()) {
+            return;
+        }
+        invalidate(dirty.left, dirty.top, dirty.right, dirty.bottom);
+    }
+
+    /**
+     * Bounds the panel is drawn at in this layout, including the transform of the expand view
+     * when the panel is its own expand view. Transforms are pivoted on the top left corner.
+     */
+    private static void getPanelDrawnBounds(View panel, Rect outRect) {
+        final int left = panel.getLeft() + (int) ViewCompat.getTranslationX(panel);
+        final int top = panel.getTop() + (int) ViewCompat.getTranslationY(panel);
+        outRect.set(left, top,
+                left + (int) Math.ceil(panel.getWidth() * ViewCompat.getScaleX(panel)),
+                top + (int) Math.ceil(panel.getHeight() * ViewCompat.getScaleY(panel)));
+    }
+
+    private int computeScrimAlpha(float scrimOffset) {
+        final int baseAlpha = (mCoveredFadeColor & 0xff000000) >>> 24;
+        return scrimOffset < 1 ? (int) (baseAlpha * (1 - scrimOffset)) : 0;
+    }
+
+    /**
+     * Add the bounds of the children drawn below the panels which intersect the given bounds of
+     * a moving panel. The scrim that panel draws over them changed.
+     */
+    private void unionCoveredContentBounds(Rect rect) {
+        final int left = rect.left;
+        final int top = rect.top;
+        final int right = rect.right;
+        final int bottom = rect.bottom;
+        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+            final View child = getChildAt(i);
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (child.getVisibility() == VISIBLE && !lp.scaleable && !lp.covered
+                    && child.getLeft() < right && left < child.getRight()
+                    && child.getTop() < bottom && top < child.getBottom()) {
+                rect.union(child.getLeft(), child.getTop(), child.getRight(), child.getBottom());
+            }
+        }
+    }
+
+    /**
+     * Narrow the clip of a child drawn below the panels to what the panels drawn over it leave
+     * visible. A panel spanning the child clips it from the side its gravity anchors it to.
+     *
+     * @return The smallest offset of the panels drawn over the child, which the scrim over it
+     *         follows, or 1 if there are none
+     */
+    private float clipToCoveringPanels(View child, Rect clip) {
+        final int left = child.getLeft();
+        final int top = child.getTop();
+        final int right = child.getRight();
+        final int bottom = child.getBottom();
+        float offset = 1.f;
+        boolean drawnAfter = false;
+        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+            final View panel = getChildAt(i);
+            if (panel == child) {
+                drawnAfter = true;
+                continue;
+            }
+            final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+            final Rect bounds = lp.drawnBounds;
+            if (!drawnAfter || !lp.scaleable || panel.getVisibility() != VISIBLE
+                    || !bounds.intersects(left, top, right, bottom)) {
+                continue;
+            }
+            offset = Math.min(offset, lp.scaleOffset);
+            if (lp.expandView != null) {
+                // Only the expand view grows, the panel bounds say little about what it covers.
+                continue;
+            }
+            if (bounds.left <= left && bounds.right >= right) {
+                if (lp.gravityBottom) {
+                    clip.bottom = Math.min(clip.bottom, bounds.top);
+                } else {
+                    clip.top = Math.max(clip.top, bounds.bottom);
+                }
+            } else if (bounds.top <= top && bounds.bottom >= bottom) {
+                if (lp.gravityRight) {
+                    clip.right = Math.min(clip.right, bounds.left);
+                } else {
+                    clip.left = Math.max(clip.left, bounds.right);
+                }
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * @return true if a visible child is drawn below the panels, with the scrim over it.
+     */
+    private boolean hasCoveredContent() {
+        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+            final View child = getChildAt(i);
+            if (child.getVisibility() == VISIBLE && !((LayoutParams) child.getLayoutParams()).scaleable) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The smallest offset of all scaleable panels, i.e. how far the most expanded
+     *         panel is expanded.
+     */
+    private float getMinScaleOffset() {
+        float offset = 1.f;
+        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+            final LayoutParams lp = (LayoutParams) getChildAt(i).getLayoutParams();
+            if (lp.scaleable && lp.scaleOffset < offset) {
+                offset = lp.scaleOffset;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Update the state of a panel that came to rest and tell the listener if it changed.
+     */
+    private void dispatchPanelRestState(View panel, LayoutParams lp) {
+        // The last offset is reported before the state it rests in.
+        flushPanelScale(panel, lp);
+        if (lp.scaleOffset == 0) {
+            if (lp.scaleState != ScaleState.EXPANDED) {
+                dispatchOnPanelExpanded(panel);
+                lp.scaleState = ScaleState.EXPANDED;
+            }
+
+        } else if (lp.scaleOffset == 1) {
+            if (lp.scaleState != ScaleState.COLLAPSED) {
+                dispatchOnPanelCollapsed(panel);
+                lp.scaleState = ScaleState.COLLAPSED;
+            }
+
+        } else {
+            // Anchors are told apart by the offset, report every rest between the ends.
+            dispatchOnPanelAnchored(panel);
+            lp.scaleState = ScaleState.ANCHORED;
+        }
+        publishSnapshot(lp);
+    }
+
+    @Override
+    protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+        final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+        if (lp.covered) {
+            // Fully behind an opaque panel, neither the child nor its scrim can be seen.
+            return false;
+        }
+        boolean result;
+        final int save = canvas.save(Canvas.CLIP_SAVE_FLAG);
+
+        boolean drawScrim = false;
+        float scrimOffset = 1.f;
+
+        if (mCanScaleChange && !lp.scaleable) {
+            // Clip against the panels; no sense drawing what will immediately be covered.
+            canvas.getClipBounds(mTmpRect);
+            scrimOffset = clipToCoveringPanels(child, mTmpRect);
+
+            canvas.clipRect(mTmpRect);
+            if (scrimOffset < 1) {
+                drawScrim = true;
+            }
+        }
+
+        result = super.drawChild(canvas, child, drawingTime);
+        canvas.restoreToCount(save);
+
+        // The scrim covers the child only, see unionCoveredContentBounds(Rect).
+        if (drawScrim && mTmpRect.intersect(child.getLeft(), child.getTop(), child.getRight(), child.getBottom())) {
+            final int imag = computeScrimAlpha(scrimOffset);
+            final int color = imag << 24 | (mCoveredFadeColor & 0xffffff);
+            mCoveredFadePaint.setColor(color);
+            canvas.drawRect(mTmpRect, mCoveredFadePaint);
+        }
+
+        return result;
+    }
+
+    /**
+     * Smoothly animate a panel to the target offset within its range.
+     *
+     * @param panel scaleable child to animate
+     * @param slideOffset position to animate to
+     * @param velocity initial velocity in case of fling, or 0.
+     */
+    boolean smoothSlideTo(View panel, float slideOffset, int velocity) {
+        return smoothSlideTo(panel, slideOffset, slideOffset, velocity);
+    }
+
+    /**
+     * Smoothly animate a panel to the target offset of each axis it scales along.
+     *
+     * @param panel scaleable child to animate
+     * @param offsetX horizontal position to animate to
+     * @param offsetY vertical position to animate to
+     * @param velocity initial velocity in case of fling, or 0.
+     */
+    boolean smoothSlideTo(View panel, float offsetX, float offsetY, int velocity) {
+        if (!mCanScaleChange || panel == null) {
+            // Nothing to do.
+            return false;
+        }
+
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+
+        // Take over from a property animation where it got to.
+        cancelOffloadedSlide(panel);
+
+        if (mDragHelper.getViewDragState() != ViewDragHelperCustom.STATE_IDLE
+                && mDragHelper.getCapturedView() != panel) {
+            // The panels share one drag helper, finish the other panel where it was heading.
+            mDragHelper.abort();
+            requestLayout();
+        }
+
+        // Axes the panel does not scale along follow the other one and stay put.
+        lp.settleTargetX = lp.scalesHorizontally() ? offsetX : lp.scaleOffsetX;
+        lp.settleTargetY = lp.scalesVertically() ? offsetY : lp.scaleOffsetY;
+        final int x = getHorizontalPosition(lp, lp.settleTargetX);
+        final int y = getVerticalPosition(lp, lp.settleTargetY);
+
+//        Log.e("smoothSlideTo", "x : " + x + ", y : " + y + ", slideOffset : " + slideOffset);
+
+        if (mDragHelper.getViewDragState() == ViewDragHelperCustom.STATE_SETTLING
+                && mDragHelper.getCapturedView() == panel) {
+            // Retarget the running settle on its next frame, keeping its position and velocity.
+            mRetargetPending = true;
+            mRetargetX = x;
+            mRetargetY = y;
+            postSettleFrame();
+            return true;
+        }
+
+        mMovingPanel = true;
+        final boolean settling = mDragHelper.smoothSlideViewToPosition(panel, x, y);
+        mMovingPanel = false;
+        return settling;
+    }
+
+    /**
+     * Start moving a panel for a {@link ScaleTimeline}. The drag helper lets go of the panel and
+     * layout requests are held back like during a settle.
+     */
+    void beginTimelineMove(View panel) {
+        cancelOffloadedSlide(panel);
+        if (mDragHelper.getCapturedView() == panel) {
+            mDragHelper.abort();
+        }
+        if (mTimelineMoves == 0) {
+            mTimelineLayoutFree = true;
+        }
+        mTimelineLayoutFree &= isLayoutFreeWhileMoving(panel);
+        mTimelineMoves++;
+        enableMovingLayer(panel);
+    }
+
+    /**
+     * Move a panel of a {@link ScaleTimeline} to the given offsets, the same way a drag does.
+     */
+    void applyTimelineOffsets(View panel, float offsetX, float offsetY) {
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+        mMovingPanel = true;
+        movePanelTo(panel, getHorizontalPosition(lp, offsetX), getVerticalPosition(lp, offsetY));
+        mMovingPanel = false;
+        // The timeline runs on a frame callback already, report the move in this frame.
+        flushPanelScale(panel, lp);
+    }
+
+    /**
+     * Finish moving a panel for a {@link ScaleTimeline} and report where it rests.
+     */
+    void endTimelineMove(View panel) {
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+        mTimelineMoves--;
+        if (isExpandViewTransformed(panel, lp)) {
+            commitExpandViewLayout(lp);
+        }
+        if (mTimelineMoves == 0) {
+            disableMovingLayer();
+            mLayerSuppressed = false;
+            flushDeferredLayout();
+        }
+        dispatchPanelRestState(panel, lp);
+    }
+
+    /**
+     * Move the settling panel to where it is at the given frame time. A settle that reaches its
+     * target goes idle right away, on the same frame.
+     */
+    private void continueSettling(long frameTimeMillis) {
+        if (mDragHelper.getViewDragState() != ViewDragHelperCustom.STATE_SETTLING) {
+            return;
+        }
+        if (!mCanScaleChange) {
+            mDragHelper.abort();
+            return;
+        }
+        mMovingPanel = true;
+        if (mRetargetPending) {
+            mRetargetPending = false;
+            mDragHelper.smoothSlideViewToPosition(mDragHelper.getCapturedView(), mRetargetX, mRetargetY);
+        }
+        final boolean settling = mDragHelper.continueSettling(false, frameTimeMillis);
+        mMovingPanel = false;
+        if (settling) {
+            postSettleFrame();
+        }
+    }
+
+    private void postSettleFrame() {
+        if (!mSettleFramePosted) {
+            mSettleFramePosted = true;
+            ChoreographerCompat.getInstance().postFrameCallback(mSettleFrameCallback);
+        }
+    }
+
+    private void removeSettleFrame() {
+        if (mSettleFramePosted && !mResumeSettlesPending) {
+            mSettleFramePosted = false;
+            ChoreographerCompat.getInstance().removeFrameCallback(mSettleFrameCallback);
         }
-        mScaleOffset = mIsGravityBottom
-                ? (float) (newTop) / mScaleRangeY
-                : 1.0f - (float) (newTop) / mScaleRangeY;
-//        Log.d("onPanelDragged", "mScaleOffset : " + mScaleOffset + ", newTop : " + newTop + ", topBound : " + topBound);
-        dispatchOnPanelScale(mScaleableView);
     }
 
-    private void onExpandViewResize() {
-        if (mUseExpandView && mExpandView != null) {
-            int widthSize = getMeasuredWidth();
-            int heightSize = getMeasuredHeight();
-            ViewGroup.LayoutParams params = mExpandView.getLayoutParams();
-
-            params.width = (int)((1.0f - mScaleOffset) * (widthSize - mExpandMinWidth)) + mExpandMinWidth;
-            params.height = (int)((1.0f - mScaleOffset) * (heightSize - mExpandMinHeight)) + mExpandMinHeight;
-
-//            Log.d("onExpandViewResize", String.format("width : %d, height : %d, mScaleOffset : %f, widthSize : %d, mExpandMinWidth : %d"
-//                    , params.width, params.height, mScaleOffset, widthSize, mExpandMinWidth));
-
-            mExpandView.setLayoutParams(params);
-        }
+    @Override
+    public void draw(Canvas c) {
+        super.draw(c);
 
+        // should draw extra views
     }
 
-    @Override
-    protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+    /**
+     * Accept vertical nested scrolls started inside a panel. Scrolling content reports what it
+     * consumed itself, so the panel follows the rest without walking the view tree.
+     *
+     * <p>The nested scrolling methods are the ViewParent ones added in Lollipop; they are not
+     * called on earlier platforms. The support library this is built against has neither
+     * NestedScrollingParent nor its helper, and the ViewGroup implementations cannot be called as
+     * super, so the bookkeeping they do is done here.</p>
+     */
+    public boolean onStartNestedScroll(View child, View target, int nestedScrollAxes) {
         final LayoutParams lp = (LayoutParams) child.getLayoutParams();
-        boolean result;
-        final int save = canvas.save(Canvas.CLIP_SAVE_FLAG);
+        if (!mCanScaleChange || !mIsScaleEnabled || !lp.scaleable || !lp.scalesVertically()
+                || (nestedScrollAxes & SCROLL_AXIS_VERTICAL) == 0
+                || mDragHelper.getViewDragState() != ViewDragHelperCustom.STATE_IDLE) {
+            return false;
+        }
+        return true;
+    }
 
-        boolean drawScrim = false;
+    public void onNestedScrollAccepted(View child, View target, int axes) {
+        // What ViewGroup does: remember the axes for getNestedScrollAxes().
+        mNestedScrollPanel = child;
+        mNestedScrollAxes = axes;
+        mNestedScrollMoved = false;
+    }
 
-        if (mCanScaleChange && !lp.scaleable && mScaleableView != null) {
-            // Clip against the slider; no sense drawing what will immediately be covered.
-            canvas.getClipBounds(mTmpRect);
-            if (!mUseExpandView) {
-                if (mIsExpanding) {
-                    mTmpRect.bottom = Math.min(mTmpRect.bottom, mScaleableView.getTop());
-                } else {
-                    mTmpRect.top = Math.max(mTmpRect.top, mScaleableView.getBottom());
-                }
-            }
+    public int getNestedScrollAxes() {
+        return mNestedScrollAxes;
+    }
 
-            canvas.clipRect(mTmpRect);
-            if (mScaleOffset < 1) {
-                drawScrim = true;
-            }
+    /**
+     * Expand a partially expanded panel before the content scrolls.
+     */
+    public void onNestedPreScroll(View target, int dx, int dy, int[] consumed) {
+        final View panel = mNestedScrollPanel;
+        if (panel == null || dy == 0) {
+            return;
         }
-
-        result = super.drawChild(canvas, child, drawingTime);
-        canvas.restoreToCount(save);
-
-        if (drawScrim) {
-            final int baseAlpha = (mCoveredFadeColor & 0xff000000) >>> 24;
-            final int imag = (int) (baseAlpha * (1 - mScaleOffset));
-            final int color = imag << 24 | (mCoveredFadeColor & 0xffffff);
-            mCoveredFadePaint.setColor(color);
-            canvas.drawRect(mTmpRect, mCoveredFadePaint);
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+        if (lp.scaleOffsetY > 0 && isNestedScrollExpanding(lp, dy)) {
+            consumed[1] = nestedScrollPanel(panel, dy);
         }
+    }
 
-        return result;
+    /**
+     * Collapse the panel with what the content left over, i.e. once it reached its end.
+     */
+    public void onNestedScroll(View target, int dxConsumed, int dyConsumed,
+                               int dxUnconsumed, int dyUnconsumed) {
+        final View panel = mNestedScrollPanel;
+        if (panel == null || dyUnconsumed == 0) {
+            return;
+        }
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+        if (!isNestedScrollExpanding(lp, dyUnconsumed)) {
+            nestedScrollPanel(panel, dyUnconsumed);
+        }
     }
 
     /**
-     * Smoothly animate mDraggingPane to the target X position within its range.
-     *
-     * @param slideOffset position to animate to
-     * @param velocity initial velocity in case of fling, or 0.
+     * Let a fling settle a panel the nested scroll moved, instead of the content.
      */
-    boolean smoothSlideTo(float slideOffset, int velocity) {
-        if (!mCanScaleChange) {
-            // Nothing to do.
+    public boolean onNestedPreFling(View target, float velocityX, float velocityY) {
+        final View panel = mNestedScrollPanel;
+        if (panel == null || !mNestedScrollMoved) {
             return false;
         }
-
-        int x = mIsGravityRight
-                ? (int) (getPaddingLeft() + slideOffset * mScaleRangeX)
-                : 0;
-
-        final int topBound = getPaddingTop(); //getSlidingTop();
-        int y = mIsGravityBottom
-                ? (int) (topBound + slideOffset * mScaleRangeY)
-                : (int) (getMeasuredHeight() * (1.f - slideOffset) - topBound);
-
-//        Log.e("smoothSlideTo", "x : " + x + ", y : " + y + ", slideOffset : " + slideOffset);
-
-        if (mDragHelper.smoothSlideViewTo(mScaleableView, x, y, !mIsGravityBottom)) {
-            setAllChildrenVisible();
-            ViewCompat.postInvalidateOnAnimation(this);
-            return true;
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+        if (lp.scaleOffsetY == 0 || lp.scaleOffsetY == 1 || isDraggingOtherPanel(panel)) {
+            return false;
         }
-        return false;
+        // Drag velocities follow the finger, scroll velocities run against it.
+        final float offsetVelocity = toOffsetVelocity(lp.gravityBottom, -velocityY, lp.scaleRangeY);
+        mNestedScrollPanel = null;
+        smoothSlideTo(panel, PanelAnchors.computeSnapOffset(lp.anchors, lp.scaleOffsetY, offsetVelocity), 0);
+        flushDeferredLayoutAfterGesture();
+        return true;
     }
 
-    @Override
-    public void computeScroll() {
-        if (mDragHelper.continueSettling(true, mIsGravityBottom)) {
-            if (!mCanScaleChange) {
-                mDragHelper.abort();
-                return;
-            }
+    public boolean onNestedFling(View target, float velocityX, float velocityY, boolean consumed) {
+        return false;
+    }
 
-            ViewCompat.postInvalidateOnAnimation(this);
+    public void onStopNestedScroll(View target) {
+        // What ViewGroup does: forget the axes. It also stops a nested scroll this layout
+        // dispatched to its own parent, which it never starts.
+        final View panel = mNestedScrollPanel;
+        mNestedScrollPanel = null;
+        mNestedScrollAxes = 0;
+        if (panel == null || !mNestedScrollMoved) {
+            flushDeferredLayoutAfterGesture();
+            return;
+        }
+        final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+        if (isDraggingOtherPanel(panel)) {
+            // Settling would take the shared drag helper from the finger, stay where it is.
+            dispatchPanelRestState(panel, lp);
+        } else if (!smoothSlideTo(panel, PanelAnchors.computeSnapOffset(lp.anchors, lp.scaleOffsetY, 0), 0)) {
+            // Already at rest.
+            dispatchPanelRestState(panel, lp);
         }
+        flushDeferredLayoutAfterGesture();
     }
 
-    @Override
-    public void draw(Canvas c) {
-        super.draw(c);
+    /**
+     * @return true if a finger drags a panel other than the given one through the drag helper.
+     */
+    private boolean isDraggingOtherPanel(View panel) {
+        return mDragHelper.getViewDragState() == ViewDragHelperCustom.STATE_DRAGGING
+                && mDragHelper.getCapturedView() != panel;
+    }
 
-        // should draw extra views
+    /**
+     * @return true if content scrolling by dy moves the panel towards expanded. Scroll deltas
+     *         run against the finger.
+     */
+    private static boolean isNestedScrollExpanding(LayoutParams lp, int dy) {
+        return lp.gravityBottom ? dy > 0 : dy < 0;
     }
 
     /**
-     * Tests scrollability within child views of v given a delta of dx.
+     * Move a panel for a nested scroll the same way a drag would.
      *
-     * @param v View to test for horizontal scrollability
-     * @param checkV Whether the view v passed should itself be checked for scrollability (true),
-     *               or just its children (false).
-     * @param dx Delta scrolled in pixels
-     * @param x X coordinate of the active touch point
-     * @param y Y coordinate of the active touch point
-     * @return true if child views of v can be scrolled by delta of dx.
-     */
-    protected boolean canScroll(View v, boolean checkV, int dx, int x, int y) {
-        if (v instanceof ViewGroup) {
-            final ViewGroup group = (ViewGroup) v;
-            final int scrollX = v.getScrollX();
-            final int scrollY = v.getScrollY();
-            final int count = group.getChildCount();
-            // Count backwards - let topmost views consume scroll distance first.
-            for (int i = count - 1; i >= 0; i--) {
-                final View child = group.getChildAt(i);
-                if (x + scrollX >= child.getLeft() && x + scrollX < child.getRight() &&
-                        y + scrollY >= child.getTop() && y + scrollY < child.getBottom() &&
-                        canScroll(child, true, dx, x + scrollX - child.getLeft(),
-                                y + scrollY - child.getTop())) {
-                    return true;
-                }
-            }
+     * @return The part of dy the panel consumed
+     */
+    private int nestedScrollPanel(View panel, int dy) {
+        final int current = mDragCallback.getViewVerticalPosition(panel);
+        // Drag positions follow the finger, scroll deltas run against it.
+        if (!movePanelTo(panel, mDragCallback.getViewHorizontalPosition(panel), current - dy)) {
+            return 0;
         }
-        return checkV && ViewCompat.canScrollHorizontally(v, -dx);
+        mNestedScrollMoved = true;
+        return current - mDragCallback.getViewVerticalPosition(panel);
     }
 
+    /**
+     * Move a panel to the given drag positions outside of the drag helper, clamped and reported
+     * the same way a drag is.
+     *
+     * @return true if the panel moved
+     */
+    private boolean movePanelTo(View panel, int x, int y) {
+        final int oldX = mDragCallback.getViewHorizontalPosition(panel);
+        final int oldY = mDragCallback.getViewVerticalPosition(panel);
+        final int clampedX = x != oldX ? mDragCallback.clampViewPositionHorizontal(panel, x, x - oldX) : oldX;
+        final int clampedY = y != oldY ? mDragCallback.clampViewPositionVertical(panel, y, y - oldY) : oldY;
+        final int dx = clampedX - oldX;
+        final int dy = clampedY - oldY;
+        if (dx == 0 && dy == 0) {
+            mDraggingPanel = false;
+            return false;
+        }
+        panel.offsetLeftAndRight(dx);
+        panel.offsetTopAndBottom(dy);
+        mDragCallback.onViewPositionChanged(panel, clampedX, clampedY, dx, dy);
+        return true;
+    }
 
     @Override
     protected ViewGroup.LayoutParams generateDefaultLayoutParams() {
@@ -1061,16 +3128,168 @@ public class ScalePanelLayout extends ViewGroup {
         Parcelable superState = super.onSaveInstanceState();
 
         SavedState ss = new SavedState(superState);
-        ss.mScaleState = mScaleState;
+
+        final int childCount = getChildCount();
+        int panelCount = 0;
+        for (int i = 0; i < childCount; i++) {
+            if (((LayoutParams) getChildAt(i).getLayoutParams()).scaleable) {
+                panelCount++;
+            }
+        }
+        ss.mScaleStates = new int[panelCount];
+        ss.mScaleValues = new float[panelCount * SavedState.VALUES_PER_PANEL];
+        for (int i = 0, panelIndex = 0; i < childCount; i++) {
+            final View child = getChildAt(i);
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (lp.scaleable) {
+                ss.mScaleStates[panelIndex] = lp.scaleState.ordinal();
+                savePanelValues(child, lp, ss.mScaleValues, panelIndex * SavedState.VALUES_PER_PANEL);
+                panelIndex++;
+            }
+        }
 
         return ss;
     }
 
+    /**
+     * Write where the panel is, where it is heading and how fast, see {@link SavedState#mScaleValues}.
+     */
+    private void savePanelValues(View panel, LayoutParams lp, float[] out, int index) {
+        float offsetX = lp.scaleOffsetX;
+        float offsetY = lp.scaleOffsetY;
+        // No target for a panel at rest, nor for one held by a gesture: it is restored exactly
+        // where the gesture left it.
+        float targetX = Float.NaN;
+        float targetY = Float.NaN;
+        float velocityX = 0;
+        float velocityY = 0;
+
+        if (lp.offloadedSlide) {
+            // The slide is drawn through the translation, the offsets are where it started.
+            offsetX = getHorizontalOffset(lp, getHorizontalPosition(lp, offsetX)
+                    + Math.round(ViewCompat.getTranslationX(panel)));
+            offsetY = getVerticalOffset(lp, getVerticalPosition(lp, offsetY)
+                    + Math.round(ViewCompat.getTranslationY(panel)));
+            targetX = lp.settleTargetX;
+            targetY = lp.settleTargetY;
+        } else if (mDragHelper.getCapturedView() == panel
+                && mDragHelper.getViewDragState() == ViewDragHelperCustom.STATE_SETTLING) {
+            targetX = lp.settleTargetX;
+            targetY = lp.settleTargetY;
+            velocityX = toOffsetVelocity(lp.gravityRight, mDragHelper.getSettleVelocityX(), lp.scaleRangeX);
+            velocityY = toOffsetVelocity(lp.gravityBottom, mDragHelper.getSettleVelocityY(), lp.scaleRangeY);
+        }
+
+        out[index] = offsetX;
+        out[index + 1] = offsetY;
+        out[index + 2] = targetX;
+        out[index + 3] = targetY;
+        out[index + 4] = velocityX;
+        out[index + 5] = velocityY;
+    }
+
     @Override
     protected void onRestoreInstanceState(Parcelable state) {
         SavedState ss = (SavedState) state;
         super.onRestoreInstanceState(ss.getSuperState());
-        mScaleState = ss.mScaleState;
+        restorePanels(ss);
+        mFirstLayout = true;
+    }
+
+    /**
+     * Put the saved offsets and states into the panels' LayoutParams right away, so the next
+     * measure and first layout place the panels where they were without another pass. Settles
+     * that were running continue on the frame after the first layout.
+     */
+    private void restorePanels(SavedState ss) {
+        if (ss.mScaleStates == null) {
+            return;
+        }
+        resolveScaleableView();
+        final ScaleState[] states = ScaleState.values();
+        final int panelCount = ss.mScaleStates.length;
+        for (int i = 0, panelIndex = 0, childCount = getChildCount(); i < childCount && panelIndex < panelCount; i++) {
+            final LayoutParams lp = (LayoutParams) getChildAt(i).getLayoutParams();
+            if (!lp.scaleable) {
+                continue;
+            }
+            final int state = ss.mScaleStates[panelIndex];
+            lp.scaleState = state >= 0 && state < states.length ? states[state] : ScaleState.COLLAPSED;
+
+            final float[] values = ss.mScaleValues;
+            final int index = panelIndex * SavedState.VALUES_PER_PANEL;
+            lp.setScaleOffsets(clampOffset(values[index]), clampOffset(values[index + 1]));
+            lp.dispatchedOffset = lp.scaleOffset;
+            lp.offsetsRestored = true;
+            lp.expandSizePending = true;
+            if (lp.expandView != null) {
+                // Measured again at the restored size, see applyRestoredExpandSizes.
+                lp.expandView.requestLayout();
+            }
+
+            lp.resumeSettle = !Float.isNaN(values[index + 2]) && !Float.isNaN(values[index + 3]);
+            if (lp.resumeSettle) {
+                lp.settleTargetX = clampOffset(values[index + 2]);
+                lp.settleTargetY = clampOffset(values[index + 3]);
+                lp.resumeVelocityX = values[index + 4];
+                lp.resumeVelocityY = values[index + 5];
+            }
+            panelIndex++;
+        }
+    }
+
+    private boolean hasRestoredSettles() {
+        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+            if (((LayoutParams) getChildAt(i).getLayoutParams()).resumeSettle) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a drag, pinch or nested scroll holds the panel.
+     */
+    private boolean isHeldByGesture(View panel) {
+        return panel == mPinchPanel || panel == mNestedScrollPanel
+                || (mDragHelper.getCapturedView() == panel
+                        && mDragHelper.getViewDragState() == ViewDragHelperCustom.STATE_DRAGGING);
+    }
+
+    private static float clampOffset(float offset) {
+        return offset > 0 ? (offset < 1 ? offset : 1.f) : 0.f;
+    }
+
+    /**
+     * Continue the settles that were running when the state was saved, from the restored
+     * offsets and at the saved velocity. Called on the first frame after the first layout, once
+     * the ranges are known. The panels share one drag helper, so only the first one settles, the others are
+     * moved to their targets.
+     */
+    private void resumeRestoredSettles() {
+        for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+            final View child = getChildAt(i);
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (!lp.resumeSettle) {
+                continue;
+            }
+            lp.resumeSettle = false;
+            if (!lp.scaleable || !mCanScaleChange || isHeldByGesture(child)) {
+                // A finger took the panel over before the first frame.
+                continue;
+            }
+            final int x = getHorizontalPosition(lp, lp.settleTargetX);
+            final int y = getVerticalPosition(lp, lp.settleTargetY);
+            mMovingPanel = true;
+            if (mDragHelper.getViewDragState() == ViewDragHelperCustom.STATE_IDLE) {
+                mDragHelper.smoothSlideViewToPosition(child, x, y,
+                        toPositionVelocity(lp.gravityRight, lp.resumeVelocityX, lp.scaleRangeX),
+                        toPositionVelocity(lp.gravityBottom, lp.resumeVelocityY, lp.scaleRangeY));
+            } else if (movePanelTo(child, x, y)) {
+                dispatchPanelRestState(child, lp);
+            }
+            mMovingPanel = false;
+        }
     }
 
     private class DragHelperCallback extends ViewDragHelperCustom.Callback {
@@ -1082,137 +3301,138 @@ public class ScalePanelLayout extends ViewGroup {
                 return false;
             }
 
-            return ((LayoutParams) child.getLayoutParams()).scaleable;
+            // Scrolling content moves the nested scroll panel.
+            return ((LayoutParams) child.getLayoutParams()).scaleable && child != mNestedScrollPanel;
         }
 
         @Override
         public void onViewDragStateChanged(int state) {
 //            Log.e("onViewDragStateChanged", "state : " + state + ", mScaleOffset : " + mScaleOffset);
-            if (state == ViewDragHelperCustom.STATE_IDLE) {
-                if (mScaleOffset == 0) {
-                    if (mScaleState != ScaleState.EXPANDED) {
-                        updateObscuredViewVisibility();
-                        dispatchOnPanelExpanded(mScaleableView);
-                        mScaleState = ScaleState.EXPANDED;
-                    }
-
-                } else if (mScaleState != ScaleState.COLLAPSED) {
-                    dispatchOnPanelCollapsed(mScaleableView);
-                    mScaleState = ScaleState.COLLAPSED;
+            final View panel = mDragHelper.getCapturedView();
+            if (state == ViewDragHelperCustom.STATE_SETTLING) {
+                postSettleFrame();
+            } else {
+                removeSettleFrame();
+                mRetargetPending = false;
+            }
+            if (state != ViewDragHelperCustom.STATE_IDLE) {
+                if (panel != null) {
+                    enableMovingLayer(panel);
                 }
+            } else {
+                disableMovingLayer();
+                mLayerSuppressed = false;
+                if (panel == null) {
+                    flushDeferredLayout();
+                    return;
+                }
+                final LayoutParams lp = (LayoutParams) panel.getLayoutParams();
+                if (isExpandViewTransformed(panel, lp)) {
+                    commitExpandViewLayout(lp);
+                }
+                flushDeferredLayout();
+                dispatchPanelRestState(panel, lp);
             }
         }
 
         @Override
         public void onViewCaptured(View capturedChild, int activePointerId) {
 //            Log.e("onViewCaptured", "child width : " + capturedChild.getMeasuredWidth() + ", height : " + capturedChild.getMeasuredHeight());
-            // Make all child views visible in preparation for sliding things around
-            setAllChildrenVisible();
         }
 
         @Override
         public void onViewPositionChanged(View changedView, int left, int top, int dx, int dy) {
 //            Log.e("onViewPositionChanged", "left : " + left + ", top : " + top + ", dx : " + dx + ", dy : " + dy);
-            if (mDragHelper.getViewDragState() == ViewDragHelper.STATE_SETTLING) {
-                if (!mIsGravityBottom && top > mScaleRangeY) {
-                    // expand
-                    top -= mExpandMinHeight;
-                }
+            mDraggingPanel = false;
+            final LayoutParams lp = (LayoutParams) changedView.getLayoutParams();
+            onPanelDragged(changedView, lp, left, top);
+            onExpandViewResize(changedView, lp);
+            invalidatePanelMove(changedView, lp);
+            publishSnapshot(lp);
+            if (mDragHelper.isApplyingDragFrame()) {
+                // Report drags applied on a frame in that frame, like settle steps and pinches.
+                flushPanelScale(changedView, lp);
             }
-            onPanelDragged(top);
-            onExpandViewResize();
-            invalidate();
         }
 
         // touch Up 이벤트시에 뷰 위치 계산.
         @Override
         public void onViewReleased(View releasedChild, float xvel, float yvel) {
-            int top = getPaddingTop();
-            int left = getPaddingLeft();
-
-            boolean isExpand = false;
-            if (mIsGravityBottom) {
-                if (yvel < 0 || (yvel == 0 && mScaleOffset < 0.5f)) {
-                    // expand
-                    isExpand = true;
-                }
-            } else {
-                if (yvel > 0 || (yvel == 0 && mScaleOffset < 0.5f)) {
-                    // expand
-                    isExpand = true;
-                }
-            }
-
-
-            if (mIsGravityRight) {
-                if (!isExpand) {
-                    left += mScaleRangeX;
-                }
-            }
-
-            if (mIsGravityBottom) {
-                if (!isExpand) {
-                    top += mScaleRangeY;
-                }
-            } else {
-                if (isExpand) {
-                    top = getMeasuredHeight() - top;
-                }
-            }
+            final LayoutParams lp = (LayoutParams) releasedChild.getLayoutParams();
+
+            // Each axis snaps on its own, axes the panel does not scale along stay put.
+            final float offsetX = lp.scalesHorizontally()
+                    ? PanelAnchors.computeSnapOffset(lp.anchors, lp.scaleOffsetX,
+                            toOffsetVelocity(lp.gravityRight, xvel, lp.scaleRangeX))
+                    : lp.scaleOffsetX;
+            final float offsetY = lp.scalesVertically()
+                    ? PanelAnchors.computeSnapOffset(lp.anchors, lp.scaleOffsetY,
+                            toOffsetVelocity(lp.gravityBottom, yvel, lp.scaleRangeY))
+                    : lp.scaleOffsetY;
 
 //            Log.e("onViewReleased", "releasedChild.getLeft() : " + left + ", top : " + top + ", yvel : " + yvel);
-            mDragHelper.settleCapturedViewAt(left, top, !mIsGravityBottom);
-            invalidate();
+            lp.settleTargetX = offsetX;
+            lp.settleTargetY = offsetY;
+            mDragHelper.settleCapturedViewAtPosition(getHorizontalPosition(lp, offsetX),
+                    getVerticalPosition(lp, offsetY));
         }
 
         @Override
         public int getViewVerticalDragRange(View child) {
-            return mScaleRangeY;
+            return ((LayoutParams) child.getLayoutParams()).scaleRangeY;
         }
 
         @Override
         public int getViewHorizontalDragRange(View child) {
             // 가로 확장 지원시 값을 주어야 함.
-            return mScaleRangeX;
+            return ((LayoutParams) child.getLayoutParams()).scaleRangeX;
         }
 
         @Override
         public int clampViewPositionVertical(View child, int top, int dy) {
-            final int topBound;
-            final int bottomBound;
-//            Log.e("clampViewPositionVertical", "top : " + top + ", dy : " + dy);
-            if (mIsGravityBottom) {
-                topBound = getPaddingTop();//getSlidingTop();
-                bottomBound = topBound + mScaleRangeY;
-                return Math.min(Math.max(top, topBound), bottomBound);
-            } else {
-                topBound = getPaddingTop();//getSlidingTop();
-                bottomBound = topBound + mScaleRangeY;
-                int height = child.getMeasuredHeight() + dy - mExpandMinHeight;
-                return Math.min(Math.max(height, topBound), bottomBound);
+            mDraggingPanel = true;
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (!lp.scalesVertically()) {
+                return getViewVerticalPosition(child);
             }
+            // For top gravity the position is how far the panel has grown from collapsed.
+            final int topBound = getPaddingTop();//getSlidingTop();
+            final int bottomBound = topBound + lp.scaleRangeY;
+            return Math.min(Math.max(top, topBound), bottomBound);
+        }
+
+        @Override
+        public int getViewVerticalPosition(View child) {
+            // Derived from the offset so it does not depend on the child having been laid out
+            // for the previous sample.
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            return getVerticalPosition(lp, lp.scaleOffsetY);
         }
 
         @Override
         public int clampViewPositionHorizontal(View child, int left, int dx) {
-            final int leftBound;
-            final int rightBound;
-            if (mIsGravityRight) {
-                leftBound = getPaddingLeft();
-                rightBound = leftBound + mScaleRangeX;
-            } else {
-                return getPaddingLeft();
+            mDraggingPanel = true;
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (!lp.scalesHorizontally()) {
+                return getViewHorizontalPosition(child);
             }
-
-            // 좌우 이동을 위해서는 return 값을 조절해야 한다.
+            // For left gravity the position is how far the panel has grown from collapsed.
+            final int leftBound = getPaddingLeft();
+            final int rightBound = leftBound + lp.scaleRangeX;
             return Math.min(Math.max(left, leftBound), rightBound);
         }
+
+        @Override
+        public int getViewHorizontalPosition(View child) {
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            return getHorizontalPosition(lp, lp.scaleOffsetX);
+        }
     }
 
     public static class LayoutParams extends MarginLayoutParams {
-        private static final int[] ATTRS = new int[] {
-                android.R.attr.layout_weight
-        };
+
+        private static final View[] NO_HANDLES = new View[0];
+        private static final Rect[] NO_HANDLE_RECTS = new Rect[0];
 
         /**
          * True if this pane is the scaleable pane in the layout.
@@ -1227,14 +3447,179 @@ public class ScalePanelLayout extends ViewGroup {
 
         Paint dimPaint;
 
+        /**
+         * True if this panel is drawn through a hardware layer while it moves.
+         */
+        boolean hardwareLayer = true;
+
+        /**
+         * True while a programmatic slide of this panel runs as a property animation of its
+         * translation.
+         */
+        boolean offloadedSlide;
+
+        /**
+         * True if the panel moved since its offset was last reported to the listeners, and the
+         * offset that was last reported, to tell which thresholds it passed.
+         */
+        boolean scaleDispatchPending;
+        float dispatchedOffset = 1.f;
+
+        /**
+         * Snapshot published to other threads, created when first asked for.
+         */
+        ScaleSnapshot snapshot;
+
+        /**
+         * Behavior attached to this child, the panel it follows or null for the default, and
+         * the offset it was last applied for.
+         */
+        ScaleBehavior behavior;
+        View behaviorPanel;
+        float behaviorOffset = -1;
+
+        /**
+         * Offsets the last settle of this panel was started towards.
+         */
+        float settleTargetX = 1.f;
+        float settleTargetY = 1.f;
+
+        /**
+         * True once the panel was laid out with offsets derived from its state or restored.
+         */
+        boolean laidOut;
+
+        /**
+         * Set when the offsets were restored from a saved instance: the first layout keeps them,
+         * the next measure sizes the expand view for them, and a settle that was running resumes
+         * towards the settle target at the given velocity, in offsets per second.
+         */
+        boolean offsetsRestored;
+        boolean expandSizePending;
+        boolean resumeSettle;
+        float resumeVelocityX;
+        float resumeVelocityY;
+
+        /**
+         * Bounds this panel was last drawn at, used to invalidate only what a move changed.
+         */
+        final Rect drawnBounds = new Rect();
+
+        /**
+         * Alpha of the scrim this panel drew over the children below it, when it was last laid
+         * out or moved.
+         */
+        int scrimAlpha;
+
+        /**
+         * True if this child is completely covered by an opaque panel drawn above it.
+         */
+        boolean covered;
+
+        /**
+         * Gravity of this panel, or -1 to use the gravity of the layout. The vertical gravity
+         * must be either {@link Gravity#TOP} or {@link Gravity#BOTTOM} and is top when none is
+         * set anywhere. Takes effect on the next layout.
+         */
+        public int gravity = -1;
+
+        /**
+         * Collapsed size of this panel, or -1 to use the size set on the layout.
+         */
+        int collapsedWidth = -1;
+        int collapsedHeight = -1;
+
+        int dragViewResId = -1;
+        int expandViewResId = -1;
+
+        /**
+         * If provided, the panel can be dragged by only these views. Their rects in the layout's
+         * coordinates are cached after layout and panel moves.
+         */
+        View[] dragHandles = NO_HANDLES;
+        Rect[] dragHandleRects = NO_HANDLE_RECTS;
+        int dragHandleCount;
+
+        /**
+         * View that grows with this panel, if any.
+         */
+        View expandView;
+
+        /**
+         * Panel geometry resolved on measure and layout.
+         */
+        boolean gravityBottom;
+        boolean gravityRight;
+        int panelWidth;
+        int panelHeight;
+        int scaleRangeX;
+        int scaleRangeY;
+        int expandMinWidth = -1;
+        int expandMinHeight = -1;
+
+        /**
+         * Axes the panel scales along, {@link #SCALE_AXIS_HORIZONTAL} and/or {@link #SCALE_AXIS_VERTICAL}.
+         */
+        int scaleAxes = SCALE_AXIS_VERTICAL;
+
+        /**
+         * How far the panel is offset from its expanded position, along each axis and overall.
+         * range [0, 1] where 0 = expanded, 1 = collapsed. Set through
+         * {@link #setScaleOffsets(float, float)}.
+         */
+        float scaleOffsetX = 1.f;
+        float scaleOffsetY = 1.f;
+        float scaleOffset = 1.f;
+
+        /**
+         * Offsets the panel can come to rest at when released, ascending, from 0 to 1.
+         */
+        float[] anchors = DEFAULT_ANCHORS;
+
+        ScaleState scaleState = ScaleState.COLLAPSED;
+
+        /**
+         * True if the expand view is drawn through a transform and its LayoutParams still have
+         * to be updated to the current size.
+         */
+        boolean expandLayoutPending;
+
         public LayoutParams() {
             super(MATCH_PARENT, MATCH_PARENT);
         }
 
+        boolean scalesHorizontally() {
+            return (scaleAxes & SCALE_AXIS_HORIZONTAL) != 0;
+        }
+
+        boolean scalesVertically() {
+            return (scaleAxes & SCALE_AXIS_VERTICAL) != 0;
+        }
+
+        /**
+         * Set the offset of each axis. An axis the panel does not scale along follows the other
+         * one, and the overall offset is the mean of the axes the panel scales along.
+         */
+        void setScaleOffsets(float offsetX, float offsetY) {
+            if (!scalesHorizontally()) {
+                offsetX = offsetY;
+            } else if (!scalesVertically()) {
+                offsetY = offsetX;
+            }
+            scaleOffsetX = offsetX;
+            scaleOffsetY = offsetY;
+            scaleOffset = (offsetX + offsetY) / 2;
+        }
+
         public LayoutParams(int width, int height) {
             super(width, height);
         }
 
+        public LayoutParams(int width, int height, int gravity) {
+            super(width, height);
+            this.gravity = gravity;
+        }
+
         public LayoutParams(ViewGroup.LayoutParams source) {
             super(source);
         }
@@ -1245,19 +3630,52 @@ public class ScalePanelLayout extends ViewGroup {
 
         public LayoutParams(LayoutParams source) {
             super(source);
+            scaleable = source.scaleable;
+            gravity = source.gravity;
+            collapsedWidth = source.collapsedWidth;
+            collapsedHeight = source.collapsedHeight;
+            dragViewResId = source.dragViewResId;
+            expandViewResId = source.expandViewResId;
+            hardwareLayer = source.hardwareLayer;
+            scaleAxes = source.scaleAxes;
+            anchors = source.anchors;
         }
 
         public LayoutParams(Context c, AttributeSet attrs) {
             super(c, attrs);
 
-            final TypedArray a = c.obtainStyledAttributes(attrs, ATTRS);
-            a.recycle();
+            final TypedArray a = c.obtainStyledAttributes(attrs, R.styleable.ScalePanelLayout_Layout);
+            if (a != null) {
+                scaleable = a.getBoolean(R.styleable.ScalePanelLayout_Layout_layout_scaleable, false);
+                gravity = a.getInt(R.styleable.ScalePanelLayout_Layout_android_layout_gravity, -1);
+                collapsedWidth = a.getDimensionPixelSize(
+                        R.styleable.ScalePanelLayout_Layout_layout_collapsedWidth, -1);
+                collapsedHeight = a.getDimensionPixelSize(
+                        R.styleable.ScalePanelLayout_Layout_layout_collapsedHeight, -1);
+                dragViewResId = a.getResourceId(R.styleable.ScalePanelLayout_Layout_layout_dragView, -1);
+                expandViewResId = a.getResourceId(R.styleable.ScalePanelLayout_Layout_layout_expandView, -1);
+                hardwareLayer = a.getBoolean(R.styleable.ScalePanelLayout_Layout_layout_hardwareLayer, true);
+                scaleAxes = a.getInt(R.styleable.ScalePanelLayout_Layout_layout_scaleAxes, SCALE_AXIS_VERTICAL);
+                a.recycle();
+            }
         }
 
     }
 
     static class SavedState extends BaseSavedState {
-        ScaleState mScaleState;
+        static final int VALUES_PER_PANEL = 6;
+
+        /**
+         * ScaleState ordinal of each panel, in child order.
+         */
+        int[] mScaleStates;
+
+        /**
+         * {@link #VALUES_PER_PANEL} values per panel: the offsets of both axes, the offsets a
+         * settle was heading to or NaN if the panel was at rest or held by a gesture, and the
+         * settle velocity of both axes in offsets per second.
+         */
+        float[] mScaleValues;
 
         SavedState(Parcelable superState) {
             super(superState);
@@ -1265,17 +3683,21 @@ public class ScalePanelLayout extends ViewGroup {
 
         private SavedState(Parcel in) {
             super(in);
-            try {
-                mScaleState = Enum.valueOf(ScaleState.class, in.readString());
-            } catch (IllegalArgumentException e) {
-                mScaleState = ScaleState.COLLAPSED;
+            mScaleStates = in.createIntArray();
+            mScaleValues = in.createFloatArray();
+            if (mScaleStates == null || mScaleValues == null
+                    || mScaleValues.length != mScaleStates.length * VALUES_PER_PANEL) {
+                // Nothing usable, the panels keep their defaults.
+                mScaleStates = null;
+                mScaleValues = null;
             }
         }
 
         @Override
         public void writeToParcel(Parcel out, int flags) {
             super.writeToParcel(out, flags);
-            out.writeString(mScaleState.toString());
+            out.writeIntArray(mScaleStates);
+            out.writeFloatArray(mScaleValues);
         }
 
         public static final Creator<SavedState> CREATOR =
@@ -0,0 +1,106 @@
+package com.erkas.app.scalepanel;
+
+/**
+ * Offset, bounds and state of a panel, published by its {@link ScalePanelLayout} for threads
+ * other than the UI thread, such as a media player or GL renderer sizing its output.
+ *
+ * <p>The UI thread is the only writer. Readers take no lock and allocate nothing: a sequence
+ * number is made odd while a new value is written and even again once it is complete, and a
+ * reader retries until it read the same even number before and after copying the fields.</p>
+ */
+public final class ScaleSnapshot {
+
+    public static final int STATE_EXPANDED = 0;
+    public static final int STATE_ANCHORED = 1;
+    public static final int STATE_COLLAPSED = 2;
+
+    /**
+     * A consistent copy of the published values. Keep one per reader thread and fill it with
+     * {@link ScaleSnapshot#read(Frame)}.
+     */
+    public static final class Frame {
+        /**
+         * Number of values published before this one, grows with every update.
+         */
+        public int sequence;
+        public float scaleOffset;
+        public float scaleOffsetX;
+        public float scaleOffsetY;
+        /**
+         * Bounds the panel is drawn at, in the layout's coordinates.
+         */
+        public int left;
+        public int top;
+        public int right;
+        public int bottom;
+        /**
+         * One of {@link #STATE_EXPANDED}, {@link #STATE_ANCHORED} or {@link #STATE_COLLAPSED}.
+         */
+        public int state;
+    }
+
+    // All fields are volatile so no read can move across the reads of the sequence number.
+    private volatile int mSequence;
+    private volatile float mScaleOffset;
+    private volatile float mScaleOffsetX;
+    private volatile float mScaleOffsetY;
+    private volatile int mLeft;
+    private volatile int mTop;
+    private volatile int mRight;
+    private volatile int mBottom;
+    private volatile int mState;
+
+    ScaleSnapshot() {
+    }
+
+    /**
+     * Publish new values. UI thread only.
+     */
+    void publish(float offsetX, float offsetY, float offset,
+                 int left, int top, int right, int bottom, int state) {
+        final int sequence = mSequence;
+        mSequence = sequence + 1;
+        mScaleOffset = offset;
+        mScaleOffsetX = offsetX;
+        mScaleOffsetY = offsetY;
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+        mState = state;
+        mSequence = sequence + 2;
+    }
+
+    /**
+     * Copy the latest complete values. Safe to call from any thread.
+     */
+    public void read(Frame out) {
+        while (true) {
+            final int sequence = mSequence;
+            if ((sequence & 1) == 0) {
+                out.scaleOffset = mScaleOffset;
+                out.scaleOffsetX = mScaleOffsetX;
+                out.scaleOffsetY = mScaleOffsetY;
+                out.left = mLeft;
+                out.top = mTop;
+                out.right = mRight;
+                out.bottom = mBottom;
+                out.state = mState;
+                if (mSequence == sequence) {
+                    out.sequence = sequence >>> 1;
+                    return;
+                }
+            }
+            // The UI thread is in the middle of an update, it only takes a few stores.
+            Thread.yield();
+        }
+    }
+
+    /**
+     * @return The latest mean offset of the panel, 0 expanded to 1 collapsed. Safe to call from
+     *         any thread, use {@link #read(Frame)} to get it together with the bounds.
+     */
+    public float getScaleOffset() {
+        return mScaleOffset;
+    }
+}
@@ -0,0 +1,264 @@
+package com.erkas.app.scalepanel;
+
+import android.support.v4.widget.ChoreographerCompat;
+import android.view.View;
+import android.view.animation.Interpolator;
+
+/**
+ * Moves panels of any number of {@link ScalePanelLayout}s together, e.g. to expand or collapse
+ * a whole screen at once.
+ *
+ * <p>All members are driven from a single frame callback with one shared easing curve. Each
+ * member starts a fixed stagger after the previous one, and the finished listener is called once,
+ * after the last member came to rest. Members report their rest state to their layout's
+ * listeners as usual.</p>
+ *
+ * <p>A timeline keeps its members after it finished, so it can be started again, e.g. with the
+ * targets swapped. It must be used on the UI thread.</p>
+ */
+public class ScaleTimeline {
+
+    private static final long DEFAULT_DURATION = 300; // ms
+
+    /**
+     * Ease out, the same curve flings use.
+     */
+    private static final Interpolator sDefaultInterpolator = new Interpolator() {
+        public float getInterpolation(float t) {
+            t -= 1.0f;
+            return t * t * t * t * t + 1.0f;
+        }
+    };
+
+    /**
+     * Listener for the end of a timeline.
+     */
+    public interface OnTimelineFinishedListener {
+        /**
+         * Called once all members of the timeline came to rest. Not called when the timeline
+         * is cancelled.
+         */
+        public void onTimelineFinished(ScaleTimeline timeline);
+    }
+
+    private static class Member {
+        ScalePanelLayout layout;
+        View panel;
+        float startX;
+        float startY;
+        float targetX;
+        float targetY;
+        boolean finished;
+    }
+
+    private Member[] mMembers = new Member[4];
+    private int mMemberCount;
+
+    private long mDuration = DEFAULT_DURATION;
+    private long mStagger;
+    private Interpolator mInterpolator = sDefaultInterpolator;
+    private OnTimelineFinishedListener mFinishedListener;
+
+    private boolean mRunning;
+
+    /**
+     * Time of the first frame, in milliseconds, or -1 before it ran.
+     */
+    private long mStartTime = -1;
+    private int mFinishedCount;
+
+    private final ChoreographerCompat.FrameCallback mFrameCallback = new ChoreographerCompat.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            runFrame(frameTimeNanos / 1000000L);
+        }
+    };
+
+    /**
+     * Add a panel moving to the given offset on the axes it scales along.
+     *
+     * @param layout Layout the panel belongs to
+     * @param panel Scaleable child of the layout
+     * @param offset Target offset, 0 for expanded, 1 for collapsed
+     */
+    public ScaleTimeline add(ScalePanelLayout layout, View panel, float offset) {
+        return add(layout, panel, offset, offset);
+    }
+
+    /**
+     * Add a panel moving to the given offsets. An axis the panel does not scale along follows the
+     * other one.
+     *
+     * @param layout Layout the panel belongs to
+     * @param panel Scaleable child of the layout
+     * @param offsetX Target horizontal offset, 0 for expanded, 1 for collapsed
+     * @param offsetY Target vertical offset, 0 for expanded, 1 for collapsed
+     */
+    public ScaleTimeline add(ScalePanelLayout layout, View panel, float offsetX, float offsetY) {
+        if (mRunning) {
+            throw new IllegalStateException("Cannot add panels to a running timeline");
+        }
+        if (layout == null || !layout.isScaleablePanel(panel)) {
+            throw new IllegalArgumentException("View is not a scaleable panel of the layout");
+        }
+        if (mMemberCount == mMembers.length) {
+            final Member[] members = new Member[mMemberCount * 2];
+            System.arraycopy(mMembers, 0, members, 0, mMemberCount);
+            mMembers = members;
+        }
+        Member member = mMembers[mMemberCount];
+        if (member == null) {
+            member = mMembers[mMemberCount] = new Member();
+        }
+        member.layout = layout;
+        member.panel = panel;
+        member.targetX = Math.max(0, Math.min(1, offsetX));
+        member.targetY = Math.max(0, Math.min(1, offsetY));
+        mMemberCount++;
+        return this;
+    }
+
+    /**
+     * Remove all members. The timeline must not be running.
+     */
+    public void clear() {
+        if (mRunning) {
+            throw new IllegalStateException("Cannot clear a running timeline");
+        }
+        for (int i = 0; i < mMemberCount; i++) {
+            mMembers[i].layout = null;
+            mMembers[i].panel = null;
+        }
+        mMemberCount = 0;
+    }
+
+    /**
+     * @param duration Time each member takes to reach its target, in milliseconds
+     */
+    public ScaleTimeline setDuration(long duration) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("Duration must not be negative");
+        }
+        mDuration = duration;
+        return this;
+    }
+
+    public long getDuration() {
+        return mDuration;
+    }
+
+    /**
+     * @param stagger Delay between the starts of two consecutive members, in milliseconds
+     */
+    public ScaleTimeline setStagger(long stagger) {
+        if (stagger < 0) {
+            throw new IllegalArgumentException("Stagger must not be negative");
+        }
+        mStagger = stagger;
+        return this;
+    }
+
+    public long getStagger() {
+        return mStagger;
+    }
+
+    /**
+     * @param interpolator Easing shared by all members, or null for the default ease out
+     */
+    public ScaleTimeline setInterpolator(Interpolator interpolator) {
+        mInterpolator = interpolator != null ? interpolator : sDefaultInterpolator;
+        return this;
+    }
+
+    public ScaleTimeline setOnTimelineFinishedListener(OnTimelineFinishedListener listener) {
+        mFinishedListener = listener;
+        return this;
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Start moving all members from where they are now. Members start on the next frame.
+     */
+    public void start() {
+        if (mRunning) {
+            throw new IllegalStateException("Timeline is already running");
+        }
+        if (mMemberCount == 0) {
+            if (mFinishedListener != null) {
+                mFinishedListener.onTimelineFinished(this);
+            }
+            return;
+        }
+        mRunning = true;
+        mStartTime = -1;
+        mFinishedCount = 0;
+        for (int i = 0; i < mMemberCount; i++) {
+            final Member member = mMembers[i];
+            final ScalePanelLayout.LayoutParams lp =
+                    (ScalePanelLayout.LayoutParams) member.panel.getLayoutParams();
+            member.startX = lp.scaleOffsetX;
+            member.startY = lp.scaleOffsetY;
+            member.finished = false;
+            member.layout.beginTimelineMove(member.panel);
+        }
+        ChoreographerCompat.getInstance().postFrameCallback(mFrameCallback);
+    }
+
+    /**
+     * Stop all members where they are. The finished listener is not called.
+     */
+    public void cancel() {
+        if (!mRunning) {
+            return;
+        }
+        ChoreographerCompat.getInstance().removeFrameCallback(mFrameCallback);
+        for (int i = 0; i < mMemberCount; i++) {
+            final Member member = mMembers[i];
+            if (!member.finished) {
+                member.finished = true;
+                member.layout.endTimelineMove(member.panel);
+            }
+        }
+        mRunning = false;
+    }
+
+    private void runFrame(long frameTime) {
+        if (mStartTime < 0) {
+            mStartTime = frameTime;
+        }
+        final long elapsed = frameTime - mStartTime;
+        for (int i = 0; i < mMemberCount; i++) {
+            final Member member = mMembers[i];
+            if (member.finished) {
+                continue;
+            }
+            final long memberElapsed = elapsed - i * mStagger;
+            if (memberElapsed < 0) {
+                // Members start in order, the following ones have not started either.
+                break;
+            }
+            final boolean done = memberElapsed >= mDuration;
+            final float fraction = done ? 1 : mInterpolator.getInterpolation((float) memberElapsed / mDuration);
+            member.layout.applyTimelineOffsets(member.panel,
+                    member.startX + (member.targetX - member.startX) * fraction,
+                    member.startY + (member.targetY - member.startY) * fraction);
+            if (done) {
+                member.finished = true;
+                mFinishedCount++;
+                member.layout.endTimelineMove(member.panel);
+            }
+        }
+
+        if (mFinishedCount < mMemberCount) {
+            ChoreographerCompat.getInstance().postFrameCallback(mFrameCallback);
+            return;
+        }
+        mRunning = false;
+        if (mFinishedListener != null) {
+            mFinishedListener.onTimelineFinished(this);
+        }
+    }
+}